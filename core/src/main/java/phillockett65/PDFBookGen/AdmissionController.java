@@ -0,0 +1,154 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * AdmissionController is a class that stops concurrent jobs in one JVM from 
+ * running out of memory together. Each job reserves its estimated memory 
+ * need from a shared budget before it starts and returns it when it ends. A 
+ * job that does not fit waits until enough running jobs have finished, so 
+ * many small jobs can run side by side while two huge ones run in turn.
+ *
+ * Jobs are admitted in the order they arrive, so a large job is not starved 
+ * by a stream of small ones. A job needing more than the whole budget is 
+ * admitted on its own, once nothing else is running. A waiting job checks 
+ * regularly whether it has been cancelled or run out of time, and if so 
+ * gives up its place so that it does not hold up the jobs behind it.
+ */
+package phillockett65.PDFBookGen;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+public class AdmissionController {
+
+    private final static long POLL = 100;   // Milliseconds between checks.
+
+    private final long budget;
+    private final Deque<Object> waiting = new ArrayDeque<>();
+    private long reserved = 0;          // Bytes held by running jobs.
+    private long peak = 0;              // Highest reserved so far.
+    private int running = 0;
+    private int admitted = 0;
+    private int queued = 0;             // Jobs that had to wait.
+    private long waitTime = 0;          // Nanoseconds spent waiting.
+
+
+    /**
+     * Constructor.
+     *
+     * @param bytes of memory the jobs may reserve between them.
+     */
+    public AdmissionController(long bytes) {
+        budget = Math.max(1, bytes);
+    }
+
+    /**
+     * Create a controller with a share of the maximum heap size as its 
+     * budget, leaving the rest for everything else in the JVM.
+     *
+     * @param fraction of the maximum heap size (0.0 to 1.0).
+     * @return the controller.
+     */
+    public static AdmissionController forHeap(double fraction) {
+        return new AdmissionController((long)(Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /**
+     * Reserve memory for a job, waiting until the jobs ahead of it have been 
+     * admitted and it fits in the budget, or until the job should stop.
+     *
+     * @param bytes of memory needed by the job.
+     * @param check made while waiting, or null to wait indefinitely.
+     * @throws InterruptedException if the thread is interrupted while waiting, 
+     * in which case nothing is reserved.
+     * @throws JobCancelledException if the check fails while waiting, in 
+     * which case nothing is reserved.
+     */
+    public synchronized void acquire(long bytes, CancelToken.Check check) 
+            throws InterruptedException, JobCancelledException {
+        final long need = Math.min(bytes, budget);
+        final Object ticket = new Object();
+        final long start = System.nanoTime();
+        waiting.addLast(ticket);
+        try {
+            while (waiting.peekFirst() != ticket || reserved + need > budget) {
+                if (check != null)
+                    check.check();
+                wait(POLL);
+            }
+        } finally {
+            waiting.remove(ticket);
+            notifyAll();
+        }
+
+        reserved += need;
+        peak = Math.max(peak, reserved);
+        running++;
+        admitted++;
+        final long waited = System.nanoTime() - start;
+        if (waited > 1_000_000L) {
+            queued++;
+            waitTime += waited;
+        }
+    }
+
+    /**
+     * Return the memory reserved by a job that has ended.
+     *
+     * @param bytes of memory passed to acquire().
+     */
+    public synchronized void release(long bytes) {
+        reserved -= Math.min(bytes, budget);
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * @return the number of bytes the jobs may reserve between them.
+     */
+    public long getBudget() { return budget; }
+
+    /**
+     * @return the number of bytes currently reserved by running jobs.
+     */
+    public synchronized long getReserved() { return reserved; }
+
+    /**
+     * @return the highest number of bytes reserved at once.
+     */
+    public synchronized long getPeakReserved() { return peak; }
+
+    /**
+     * @return the number of jobs currently running.
+     */
+    public synchronized int getRunning() { return running; }
+
+    /**
+     * @return the number of jobs waiting to be admitted.
+     */
+    public synchronized int getWaiting() { return waiting.size(); }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Admitted %d jobs, %d waited %d ms in total, peak %d of %d MB reserved", 
+            admitted, queued, waitTime / 1_000_000L, peak >> 20, budget >> 20);
+    }
+
+}
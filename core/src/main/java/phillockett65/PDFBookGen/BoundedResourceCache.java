@@ -0,0 +1,279 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BoundedResourceCache is a class that replaces the PDFBox resource cache of 
+ * the documents a job reads, so that the fonts, colour spaces, images and 
+ * forms resolved from them are kept under a chosen policy:
+ *
+ *   LRU       - at most a given number of entries, the least recently used 
+ *               being dropped first.
+ *   SIGNATURE - everything, until the end of each signature.
+ *   SOFT      - everything, through soft references that the garbage 
+ *               collector clears when the heap runs short.
+ *
+ * The hits and misses are counted, so the cost of resolving resources again 
+ * can be weighed against the heap used to keep them.
+ *
+ * One cache is shared by the documents of a job, as the entries are keyed 
+ * by the indirect objects they were resolved from. Each further booklet of 
+ * a job gets its own cache with the same policy, and a job clears its cache 
+ * when it ends, so no entries resolved from closed documents are kept by a 
+ * long running process.
+ */
+package phillockett65.PDFBookGen;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.pdmodel.ResourceCache;
+import org.apache.pdfbox.pdmodel.documentinterchange.markedcontent.PDPropertyList;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDAbstractPattern;
+import org.apache.pdfbox.pdmodel.graphics.shading.PDShading;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+
+public class BoundedResourceCache implements ResourceCache {
+    public static final int DEFAULT_ENTRIES = 256;
+
+    public enum Policy { LRU, SIGNATURE, SOFT }
+
+    private final Policy policy;
+    private final int capacity;
+    private final Map<COSObject, Object> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+
+    /**
+     * Constructor.
+     *
+     * @param policy for keeping the entries.
+     * @param capacity maximum number of entries for the LRU policy, ignored 
+     * by the others.
+     */
+    public BoundedResourceCache(Policy policy, int capacity) {
+        this.policy = policy;
+        this.capacity = Math.max(1, capacity);
+
+        if (policy == Policy.LRU) {
+            entries = new LinkedHashMap<>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<COSObject, Object> eldest) {
+                    if (size() <= BoundedResourceCache.this.capacity)
+                        return false;
+
+                    evictions++;
+
+                    return true;
+                }
+            };
+        }
+        else {
+            entries = new HashMap<>();
+        }
+    }
+
+    /**
+     * Constructor for an empty cache with the same policy and capacity as 
+     * another.
+     *
+     * @param other cache to take the policy and capacity from.
+     */
+    public BoundedResourceCache(BoundedResourceCache other) {
+        this(other.policy, other.capacity);
+    }
+
+    /**
+     * Create a cache from a command line style specification: "lru" or 
+     * "lru:entries", "signature" or "soft".
+     *
+     * @param spec the policy and optional number of entries.
+     * @return the cache, or null if the specification is not recognised.
+     */
+    public static BoundedResourceCache parse(String spec) {
+        final int colon = spec.indexOf(':');
+        final String name = (colon < 0) ? spec : spec.substring(0, colon);
+        switch (name) {
+            case "lru":
+                return new BoundedResourceCache(Policy.LRU, (colon < 0) ? 
+                    DEFAULT_ENTRIES : Integer.parseInt(spec.substring(colon + 1)));
+            case "signature":
+                return new BoundedResourceCache(Policy.SIGNATURE, 0);
+            case "soft":
+                return new BoundedResourceCache(Policy.SOFT, 0);
+        }
+
+        System.out.println("Unknown resource cache: " + spec);
+
+        return null;
+    }
+
+    /**
+     * Note that a signature has been completed, which clears the cache under 
+     * the SIGNATURE policy.
+     */
+    public synchronized void endSignature() {
+        if (policy == Policy.SIGNATURE) {
+            evictions += entries.size();
+            entries.clear();
+        }
+    }
+
+    /**
+     * Drop all the entries.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public Policy getPolicy() { return policy; }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * @return the fraction of look ups that found an entry (0.0 to 1.0).
+     */
+    public synchronized double getHitRatio() {
+        final long total = hits + misses;
+        if (total == 0)
+            return 0.0;
+
+        return (double)hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final String name = (policy == Policy.LRU) ? 
+            "lru:" + capacity : policy.name().toLowerCase();
+
+        return String.format("Resource cache %s: %d hits, %d misses (%.0f%% hits), %d evicted, %d held",
+            name, hits, misses, 100 * getHitRatio(), evictions, entries.size());
+    }
+
+
+
+    /************************************************************************
+     * Support code for the ResourceCache interface.
+     */
+
+    private synchronized <T> T get(COSObject indirect, Class<T> type) {
+        Object value = entries.get(indirect);
+        if (value instanceof SoftReference) {
+            value = ((SoftReference<?>)value).get();
+            if (value == null) {
+                entries.remove(indirect);
+                evictions++;
+            }
+        }
+
+        if (type.isInstance(value)) {
+            hits++;
+
+            return type.cast(value);
+        }
+        misses++;
+
+        return null;
+    }
+
+    private synchronized void put(COSObject indirect, Object value) {
+        entries.put(indirect, (policy == Policy.SOFT) ? new SoftReference<>(value) : value);
+    }
+
+    @Override
+    public PDFont getFont(COSObject indirect) {
+        return get(indirect, PDFont.class);
+    }
+
+    @Override
+    public PDColorSpace getColorSpace(COSObject indirect) {
+        return get(indirect, PDColorSpace.class);
+    }
+
+    @Override
+    public PDExtendedGraphicsState getExtGState(COSObject indirect) {
+        return get(indirect, PDExtendedGraphicsState.class);
+    }
+
+    @Override
+    public PDShading getShading(COSObject indirect) {
+        return get(indirect, PDShading.class);
+    }
+
+    @Override
+    public PDAbstractPattern getPattern(COSObject indirect) {
+        return get(indirect, PDAbstractPattern.class);
+    }
+
+    @Override
+    public PDPropertyList getProperties(COSObject indirect) {
+        return get(indirect, PDPropertyList.class);
+    }
+
+    @Override
+    public PDXObject getXObject(COSObject indirect) {
+        return get(indirect, PDXObject.class);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDFont font) {
+        put(indirect, (Object)font);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDColorSpace colorSpace) {
+        put(indirect, (Object)colorSpace);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDExtendedGraphicsState extGState) {
+        put(indirect, (Object)extGState);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDShading shading) {
+        put(indirect, (Object)shading);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDAbstractPattern pattern) {
+        put(indirect, (Object)pattern);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDPropertyList propertyList) {
+        put(indirect, (Object)propertyList);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDXObject xobject) {
+        put(indirect, (Object)xobject);
+    }
+
+}
@@ -0,0 +1,81 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CancelToken is a class that lets a booklet generation job be cancelled 
+ * cooperatively. A token can be shared between the job and whoever may give 
+ * up on it, such as the user or a batch system, and by several jobs to 
+ * cancel them all together. The job checks the token between sheets and 
+ * signatures and while a source is loaded, and also stops if its thread is 
+ * interrupted. A time limit is kept by each job, not by the token, so jobs 
+ * sharing a token do not disturb each other's limits.
+ *
+ * A cancelled token stays cancelled, so that jobs started later by a batch 
+ * that has been given up on stop too, until reset() is called.
+ *
+ * Code that runs for a long time on behalf of a job, such as loading a 
+ * source or waiting to be admitted, is given a Check rather than the token, 
+ * so that it also stops when the job's time limit has passed.
+ */
+package phillockett65.PDFBookGen;
+
+public class CancelToken {
+
+    /**
+     * Something that can tell whether a job should stop.
+     */
+    public interface Check {
+        /**
+         * @throws JobCancelledException if the job should stop.
+         */
+        public void check() throws JobCancelledException;
+    }
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Request that the jobs using this token stop as soon as possible.
+     */
+    public void cancel() { cancelled = true; }
+
+    /**
+     * Allow the token to be used for further jobs after it was cancelled.
+     */
+    public void reset() { cancelled = false; }
+
+    /**
+     * @return true if cancel() has been called, false otherwise.
+     */
+    public boolean isCancelled() { return cancelled; }
+
+    /**
+     * Check whether the job should stop.
+     * @throws JobCancelledException if the token has been cancelled or the 
+     * current thread has been interrupted.
+     */
+    public void check() throws JobCancelledException {
+        if (cancelled)
+            throw new JobCancelledException("Job cancelled");
+
+        if (Thread.currentThread().isInterrupted())
+            throw new JobCancelledException("Job interrupted");
+    }
+
+}
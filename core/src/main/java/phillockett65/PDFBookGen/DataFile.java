@@ -0,0 +1,186 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DataFile is a class that locates, reads and writes the files the 
+ * application keeps between sessions, such as the SourceCache and 
+ * JobHistory files.
+ *
+ * The files are kept in the .pdfbookgen directory in the user's home 
+ * directory, or in the directory given by setDirectory(), rather than in 
+ * whatever directory the application happens to be started from. The 
+ * directory is created when the first file is written to it.
+ *
+ * Each file holds a header of a magic number and a format version, the 
+ * entries and a CRC32 checksum. It is written to a temporary file, which is 
+ * synced and then moved over the old one, so a crash part way through a 
+ * write leaves the previous version intact. A file that fails the checksum 
+ * or has another format is rejected when read.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+public class DataFile {
+
+    private final static String DIRECTORY = ".pdfbookgen";
+
+    private static volatile Path directory;
+
+    /**
+     * Writes the entries of a data file.
+     */
+    public interface Entries {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+
+    /**
+     * Set the directory the data files are kept in, so that they can be kept 
+     * with the application instead of in the user's home directory. Must be 
+     * called before the warm-up or the first job is started.
+     *
+     * @param path of the directory to hold the data files.
+     */
+    public static void setDirectory(String path) {
+        directory = Paths.get(path).toAbsolutePath();
+    }
+
+    /**
+     * @return the directory the data files are kept in.
+     */
+    public static Path getDirectory() {
+        if (directory == null)
+            return Paths.get(System.getProperty("user.home"), DIRECTORY);
+
+        return directory;
+    }
+
+    /**
+     * Get the path of a data file.
+     *
+     * @param name of the file.
+     * @return the path of the file in the data directory.
+     */
+    public static Path get(String name) {
+        return getDirectory().resolve(name);
+    }
+
+    /**
+     * Read a data file, checking its checksum and header.
+     *
+     * @param file to read.
+     * @param magic number identifying the kind of file.
+     * @param version of the format expected.
+     * @return a stream of the entries, or null if there is no file.
+     * @throws IOException if the file cannot be read, is damaged or has 
+     * another format.
+     */
+    public static DataInputStream read(Path file, int magic, int version) 
+            throws IOException {
+        if (!Files.exists(file))
+            return null;
+
+        final String name = file.getFileName().toString();
+        final byte[] data = Files.readAllBytes(file);
+        if (data.length < 8)
+            throw new IOException(name + " is truncated");
+
+        final int length = data.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        DataInputStream tail = new DataInputStream(
+                new ByteArrayInputStream(data, length, 8));
+        if (tail.readLong() != crc.getValue())
+            throw new IOException(name + " checksum does not match");
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(data, 0, length));
+        if (in.readInt() != magic || in.readInt() != version)
+            throw new IOException(name + " format not recognised");
+
+        return in;
+    }
+
+    /**
+     * Write a data file to a temporary file and move it over the old one.
+     *
+     * @param file to write.
+     * @param magic number identifying the kind of file.
+     * @param version of the format written.
+     * @param entries writes the entries of the file.
+     */
+    public static void write(Path file, int magic, int version, Entries entries) 
+            throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(magic);
+        out.writeInt(version);
+        entries.write(out);
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), 
+                file.getFileName().toString(), ".tmp");
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temp.toFile())) {
+                buffer.writeTo(stream);
+                stream.getFD().sync();
+            }
+            replace(temp, file);
+            temp = null;
+        } finally {
+            if (temp != null)
+                Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Move a file over another, atomically if the file system allows it, so 
+     * that a reader never sees a partly written file.
+     *
+     * @param temp the file to move.
+     * @param target the file to replace.
+     */
+    public static void replace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * GenerationEvents holds the Java Flight Recorder events produced while 
+ * generating a booklet, so a recording shows which job, signature, sheet or 
+ * save was slow rather than just PDFBox frames.
+ *
+ * The events are only committed, and their fields only filled in, when 
+ * recording is enabled for them, so they cost next to nothing otherwise. 
+ * Page numbers are numbered from 1, as shown by PDF viewers.
+ */
+package phillockett65.PDFBookGen;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+public class GenerationEvents {
+
+    private GenerationEvents() {
+    }
+
+    @Name("phillockett65.PDFBookGen.Job")
+    @Label("Booklet Job")
+    @Category("PDFBookGen")
+    @Description("Generation of a booklet, from reading the source to saving the output")
+    @StackTrace(false)
+    public static class JobEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Output")
+        String output;
+
+        @Label("Layout")
+        String layout;
+
+        @Label("First Page")
+        int firstPage;
+
+        @Label("Last Page")
+        int lastPage;
+
+        @Label("Signatures")
+        int signatures;
+
+        @Label("Succeeded")
+        boolean success;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("phillockett65.PDFBookGen.Signature")
+    @Label("Signature")
+    @Category("PDFBookGen")
+    @Description("A signature, from importing its first page to adding its last sheet")
+    @StackTrace(false)
+    public static class SignatureEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Signature")
+        int signature;
+
+        @Label("First Page")
+        int firstPage;
+
+        @Label("Last Page")
+        int lastPage;
+
+        @Label("Sheet Sides")
+        int sides;
+    }
+
+    @Name("phillockett65.PDFBookGen.Sheet")
+    @Label("Sheet Side")
+    @Category("PDFBookGen")
+    @Description("Composing one side of a sheet from its imported pages")
+    @StackTrace(false)
+    public static class SheetEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Signature")
+        int signature;
+
+        @Label("Side")
+        @Description("Side of the sheet within the signature, numbered from 0")
+        int side;
+
+        @Label("Pages")
+        @Description("Source pages in slot order, 0 for a blank slot")
+        String pages;
+
+        @Label("Import Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long importTime;
+
+        @Label("Content Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("phillockett65.PDFBookGen.Save")
+    @Label("Save")
+    @Category("PDFBookGen")
+    @Description("Writing a generated PDF to disc")
+    @StackTrace(false)
+    public static class SaveEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Pages")
+        int pages;
+
+        @Label("Linearized")
+        boolean linearized;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+    }
+
+}
@@ -0,0 +1,161 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * GridLayout is a Layout that divides each side of a sheet into a grid of 
+ * equally sized cells and places a 2 page spread in each cell. The spread is 
+ * rotated so that it runs along the longer side of the cell, so a single cell 
+ * on a portrait sheet gives the traditional 2-up booklet.
+ * 
+ * With more than one cell the sheets are printed, cut into cells and the 
+ * piles are stacked in cell order (cut and stack). The spreads are arranged 
+ * so that the stacked pieces nest into a single saddle stitched signature.
+ * 
+ * The reverse side mirrors the cell positions to match how the sheet is 
+ * turned over. When the reverse is not rotated the sheet is turned along the 
+ * fold of the spreads, otherwise across it. As the spreads are turned to fit 
+ * the cells, the fold runs down the sheet (left to right mirror) or across 
+ * it (top to bottom mirror) depending on the shape of the cell.
+ */
+package phillockett65.PDFBookGen;
+
+import java.awt.geom.AffineTransform;
+
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.util.Matrix;
+
+public class GridLayout implements Layout {
+    private final String name;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * Construct a GridLayout.
+     * @param name of the layout.
+     * @param columns number of cells across the sheet.
+     * @param rows number of cells down the sheet.
+     */
+    public GridLayout(String name, int columns, int rows) {
+        this.name = name;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public int getSlotCount() { return 2 * getCellCount(); }
+
+    /**
+     * @return the number of cells (2 page spreads) on one side of a sheet.
+     */
+    public int getCellCount() { return columns * rows; }
+
+
+    @Override
+    public int[][] getImposition(int sheetCount) {
+        final int cells = getCellCount();
+        final int last = 4 * cells * sheetCount - 1;
+
+        int[][] imposition = new int[2 * sheetCount][getSlotCount()];
+        for (int sheet = 0; sheet < sheetCount; ++sheet) {
+            int[] front = imposition[2 * sheet];
+            int[] reverse = imposition[2 * sheet + 1];
+
+            for (int cell = 0; cell < cells; ++cell) {
+                // Position of this piece in the stack once it has been cut.
+                final int fold = cell * sheetCount + sheet;
+                final int left = 2 * cell;
+                final int right = left + 1;
+
+                front[left] = last - 2 * fold;
+                front[right] = 2 * fold;
+                reverse[left] = 2 * fold + 1;
+                reverse[right] = last - 2 * fold - 1;
+            }
+        }
+
+        return imposition;
+    }
+
+
+    @Override
+    public Matrix[][] getTransforms(PDRectangle sheet, PDRectangle source, 
+            boolean rotate) {
+        final float cw = sheet.getWidth() / columns;
+        final float ch = sheet.getHeight() / rows;
+        final int quarter = (cw < ch) ? 1 : 0;
+
+        final float iw = source.getWidth();
+        final float ih = source.getHeight();
+
+        Matrix[][] transforms = new Matrix[2][getSlotCount()];
+        for (int side = 0; side < 2; ++side) {
+            final boolean reverse = side == 1;
+            final int turns = (reverse && rotate) ? quarter + 2 : quarter;
+
+            // Size of the spread before it is turned to fit the cell.
+            final boolean across = (turns % 2) == 0;
+            final float sw = across ? cw : ch;
+            final float sh = across ? ch : cw;
+
+            // Scale the page to fit half of the spread and centre vertically.
+            final float scale = Math.min((sw / 2) / iw, sh / ih);
+            final float ty = (sh - (ih * scale)) / 2;
+
+            for (int cell = 0; cell < getCellCount(); ++cell) {
+                int row = cell / columns;
+                int column = cell % columns;
+                if (reverse) {
+                    if (rotate == (quarter == 1))
+                        column = columns - 1 - column;
+                    else
+                        row = rows - 1 - row;
+                }
+
+                // Place the spread in the cell, counting rows from the top.
+                AffineTransform spread = AffineTransform.getTranslateInstance(
+                        column * cw, (rows - 1 - row) * ch);
+                spread.translate((turns == 1 || turns == 2) ? cw : 0, 
+                        (turns >= 2) ? ch : 0);
+                spread.quadrantRotate(turns);
+
+                // Butt both pages up to the fold.
+                transforms[side][2 * cell] = 
+                        place(spread, (sw / 2) - (iw * scale), ty, scale);
+                transforms[side][2 * cell + 1] = 
+                        place(spread, sw / 2, ty, scale);
+            }
+        }
+
+        return transforms;
+    }
+
+    private static Matrix place(AffineTransform spread, float tx, float ty, 
+            float scale) {
+        AffineTransform af = new AffineTransform(spread);
+        af.translate(tx, ty);
+        af.scale(scale, scale);
+
+        return new Matrix(af);
+    }
+
+}
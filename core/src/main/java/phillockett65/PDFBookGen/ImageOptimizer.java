@@ -0,0 +1,518 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ImageOptimizer is a class that reduces the resolution of the images on the 
+ * imported pages to what is actually needed on the printed sheet.
+ *
+ * Shrinking a page onto part of a sheet raises the effective resolution of 
+ * every image on it, so a 600 DPI scan ends up well over 1200 DPI on an 8-up 
+ * sheet. The effective resolution of each image is found by running the 
+ * imported form's content stream through a PDFStreamEngine, combining the 
+ * current transformation matrix at each image with the scale of the slot the 
+ * page is placed in. Images above the target resolution are downsampled and 
+ * recompressed by a pool of threads.
+ *
+ * The images are replaced in place, so every page using an image picks up the 
+ * smaller version. Each image is processed when the document using it is 
+ * about to be saved, at the largest scale it is used at in that document, so 
+ * it is never reduced below what its largest use needs. The new version is 
+ * only kept if it is smaller than the original. When the imported pages 
+ * share the source objects, an image can be used by several documents, each 
+ * of which waits for it before it is saved. If a later document uses it at 
+ * a larger scale, the kept original samples are put back and the image is 
+ * processed again.
+ *
+ * Optionally the images and forms are resolved through a ResourceCache, so 
+ * that those used by several pages are only resolved once.
+ */
+package phillockett65.PDFBookGen;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.state.Concatenate;
+import org.apache.pdfbox.contentstream.operator.state.Restore;
+import org.apache.pdfbox.contentstream.operator.state.Save;
+import org.apache.pdfbox.contentstream.operator.state.SetGraphicsStateParameters;
+import org.apache.pdfbox.contentstream.operator.state.SetMatrix;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.ResourceCache;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDCalGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDCalRGB;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.color.PDIndexed;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.util.Matrix;
+
+public class ImageOptimizer {
+
+    // Image dictionary entries that describe the encoded samples.
+    private static final COSName[] SAMPLE_KEYS = { 
+            COSName.FILTER, COSName.DECODE_PARMS, COSName.WIDTH, COSName.HEIGHT, 
+            COSName.BITS_PER_COMPONENT, COSName.COLORSPACE, COSName.DECODE };
+
+    private static final float JPEG_QUALITY = 0.85F;
+
+    private final float targetDPI;
+    private final ExecutorService pool;
+
+    // Guarded by this: the largest scale each image is used at, the images 
+    // each document uses and the scale each image has been processed at.
+    private final Map<COSStream, Float> scales = new IdentityHashMap<>();
+    private final Map<COSStream, PDImageXObject> images = new IdentityHashMap<>();
+    private final Map<PDDocument, Set<COSStream>> uses = new IdentityHashMap<>();
+    private final Map<COSStream, Task> tasks = new IdentityHashMap<>();
+
+    // Samples replaced in images that may be used again at a larger scale.
+    private final Map<COSStream, COSStream> originals = new ConcurrentHashMap<>();
+    private boolean shared = false;
+
+    private final AtomicInteger found = new AtomicInteger();
+    private final AtomicInteger reduced = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong before = new AtomicLong();
+    private final AtomicLong after = new AtomicLong();
+    private ResourceCache cache = null;
+
+
+    /**
+     * Constructor.
+     *
+     * @param dpi target resolution of the images on the sheet.
+     * @param threads number of threads used to process the images.
+     */
+    public ImageOptimizer(float dpi, int threads) {
+        targetDPI = dpi;
+        pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "ImageOptimizer");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Set the cache to resolve the images and forms through.
+     *
+     * @param cache to use, or null to resolve them again for each page.
+     */
+    public void setResourceCache(ResourceCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Indicate whether the images may be used by more than one document, 
+     * as they are when the imported pages share the source objects. The 
+     * original samples of a reduced image are then kept, so that it can be 
+     * processed again if a later document uses it at a larger scale.
+     *
+     * @param state true if the images may be shared between documents.
+     */
+    public void setShared(boolean state) {
+        shared = state;
+    }
+
+    /**
+     * Find the images used by an imported page and record the largest scale 
+     * each one is used at. Nothing is downsampled until await() is called 
+     * for the document, when all its uses are known.
+     *
+     * @param doc the document the form was imported into.
+     * @param form the imported page.
+     * @param slot transformation that places the form on the sheet.
+     */
+    public void optimize(PDDocument doc, PDFormXObject form, Matrix slot) 
+            throws IOException {
+        ImageFinder finder = new ImageFinder(slot);
+        finder.find(form);
+
+        for (Map.Entry<COSStream, Float> use : finder.scales.entrySet()) {
+            final COSStream stream = use.getKey();
+            final float scale = use.getValue();
+            Task done;
+            synchronized (this) {
+                uses.computeIfAbsent(doc, k -> Collections.newSetFromMap(new IdentityHashMap<>()))
+                    .add(stream);
+                final Float known = scales.get(stream);
+                if (known == null) {
+                    found.incrementAndGet();
+                    images.put(stream, finder.images.get(stream));
+                }
+                if (known != null && known >= scale)
+                    continue;
+
+                scales.put(stream, scale);
+                done = tasks.get(stream);
+                if (done == null || done.scale >= scale || !shared)
+                    continue;
+
+                // Already processed for a smaller use, start again.
+                tasks.remove(stream);
+            }
+            restore(stream, done);
+        }
+    }
+
+    /**
+     * Put back the original samples of an image processed at too small a 
+     * scale. Only images shared between documents can be used again once 
+     * processed, and their originals are kept.
+     */
+    private void restore(COSStream stream, Task done) throws IOException {
+        try {
+            done.future.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Job interrupted");
+        }
+
+        final COSStream original = originals.remove(stream);
+        if (original == null)
+            return;
+
+        try {
+            copy(original, stream);
+            reduced.decrementAndGet();
+            before.addAndGet(-original.getLength());
+            after.addAndGet(-done.length);
+        } finally {
+            original.close();
+        }
+    }
+
+    /**
+     * Downsample the images used by a document at the largest scale they 
+     * are used at and wait for them to be processed. Images already being 
+     * processed for another document are waited for too. Must be called 
+     * before the document is saved.
+     *
+     * @param doc the document to be saved.
+     */
+    public void await(PDDocument doc) throws IOException {
+        List<Future<?>> list = new ArrayList<>();
+        synchronized (this) {
+            final Set<COSStream> streams = uses.remove(doc);
+            if (streams == null)
+                return;
+
+            for (COSStream stream : streams) {
+                Task task = tasks.get(stream);
+                if (task == null) {
+                    final PDImageXObject image = images.get(stream);
+                    final float scale = scales.get(stream);
+                    task = new Task(scale);
+                    if (scale < 1F) {
+                        final Task running = task;
+                        task.future = pool.submit(() -> downsample(doc, image, running));
+                    }
+                    tasks.put(stream, task);
+                }
+                if (task.future != null)
+                    list.add(task.future);
+
+                if (!shared) {
+                    // The image belongs to this document alone.
+                    scales.remove(stream);
+                    images.remove(stream);
+                    tasks.remove(stream);
+                }
+            }
+        }
+
+        try {
+            for (Future<?> task : list) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Job interrupted");
+        }
+    }
+
+    /**
+     * Stop processing images, any outstanding work is abandoned.
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("images   %6d found, %6d reduced, %6d skipped, %d KB to %d KB", 
+                found.get(), reduced.get(), skipped.get(), 
+                before.get() / 1024, after.get() / 1024);
+    }
+
+
+
+    /************************************************************************
+     * Support code for finding the effective resolution of the images.
+     */
+
+    /**
+     * A PDFStreamEngine that tracks the transformation matrix and records the 
+     * scale needed to bring each image down to the target resolution.
+     */
+    private class ImageFinder extends PDFStreamEngine {
+        private final Matrix slot;
+        private final Map<COSStream, Float> scales = new IdentityHashMap<>();
+        private final Map<COSStream, PDImageXObject> images = new IdentityHashMap<>();
+
+        ImageFinder(Matrix slot) {
+            this.slot = slot;
+            addOperator(new Concatenate());
+            addOperator(new Save());
+            addOperator(new Restore());
+            addOperator(new SetMatrix());
+            addOperator(new SetGraphicsStateParameters());
+        }
+
+        void find(PDFormXObject form) throws IOException {
+            if (cache != null)
+                form = new PDFormXObject(form.getCOSObject(), cache);
+
+            processChildStream(form, new PDPage(form.getBBox()));
+        }
+
+        @Override
+        protected void processOperator(Operator operator, List<COSBase> operands) 
+                throws IOException {
+            if (!"Do".equals(operator.getName()) || operands.isEmpty() || 
+                !(operands.get(0) instanceof COSName)) {
+                super.processOperator(operator, operands);
+
+                return;
+            }
+
+            PDXObject xobject = getResources().getXObject((COSName)operands.get(0));
+            if (xobject instanceof PDFormXObject) {
+                showForm((PDFormXObject)xobject);
+            }
+            else if (xobject instanceof PDImageXObject) {
+                addImage((PDImageXObject)xobject);
+            }
+        }
+
+        /**
+         * Record the scale needed for an image, keeping the largest scale if 
+         * the image is used more than once.
+         */
+        private void addImage(PDImageXObject image) {
+            // The image is drawn into the unit square of the CTM, so the size 
+            // on the sheet is the length of each axis after the slot transform.
+            final Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+            final Matrix sheet = ctm.multiply(slot);
+            final float x = (float)Math.hypot(sheet.getValue(0, 0), sheet.getValue(0, 1));
+            final float y = (float)Math.hypot(sheet.getValue(1, 0), sheet.getValue(1, 1));
+            if (x <= 0 || y <= 0)
+                return;
+
+            // Measure a reduced image by its kept original.
+            final COSStream stream = image.getCOSObject();
+            final COSStream original = originals.get(stream);
+            final int width = (original == null) ? 
+                image.getWidth() : original.getInt(COSName.WIDTH);
+            final int height = (original == null) ? 
+                image.getHeight() : original.getInt(COSName.HEIGHT);
+            final float dpiX = width * 72F / x;
+            final float dpiY = height * 72F / y;
+            final float scale = targetDPI / Math.min(dpiX, dpiY);
+
+            images.putIfAbsent(stream, image);
+            scales.merge(stream, scale, Math::max);
+        }
+    }
+
+
+
+    /************************************************************************
+     * Support code for downsampling the images.
+     */
+
+    /**
+     * @return true if the image can be resampled without changing its 
+     * meaning.
+     */
+    private static boolean isSupported(PDImageXObject image) throws IOException {
+        if (image.isStencil())
+            return false;
+
+        // Colour key masks refer to the original sample values.
+        if (image.getCOSObject().containsKey(COSName.MASK))
+            return false;
+
+        final PDColorSpace space = image.getColorSpace();
+        if (space instanceof PDICCBased) {
+            final int n = space.getNumberOfComponents();
+
+            return (n == 1) || (n == 3);
+        }
+
+        return (space instanceof PDDeviceGray) || (space instanceof PDDeviceRGB) || 
+            (space instanceof PDCalGray) || (space instanceof PDCalRGB) || 
+            (space instanceof PDIndexed);
+    }
+
+    /**
+     * Downsample an image and replace its samples in place if the result is 
+     * smaller. Images that cannot be decoded are left as they are.
+     *
+     * @param doc the document containing the image.
+     * @param image to downsample.
+     * @param task holding the scale to apply to the width and height of the 
+     * image, which records the length of the result.
+     */
+    private Void downsample(PDDocument doc, PDImageXObject image, Task task) 
+            throws IOException {
+        final COSStream stream = image.getCOSObject();
+        final float scale = task.scale;
+        try {
+            if (!isSupported(image)) {
+                skipped.incrementAndGet();
+
+                return null;
+            }
+
+            final int width = Math.max(1, Math.round(image.getWidth() * scale));
+            final int height = Math.max(1, Math.round(image.getHeight() * scale));
+            final boolean gray = image.getColorSpace().getNumberOfComponents() == 1 && 
+                !(image.getColorSpace() instanceof PDIndexed);
+
+            // Decode at a reduced size where possible to save memory.
+            final int subsampling = Math.max(1, (int)Math.floor(1F / scale));
+            BufferedImage source = image.getOpaqueImage(null, subsampling);
+
+            BufferedImage target = new BufferedImage(width, height, 
+                    gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = target.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
+                    RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, 
+                    RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+            g.dispose();
+            source = null;
+
+            final boolean jpeg = COSName.DCT_DECODE.equals(stream.getCOSName(COSName.FILTER));
+            PDImageXObject smaller = jpeg ? 
+                JPEGFactory.createFromImage(doc, target, JPEG_QUALITY) : 
+                LosslessFactory.createFromImage(doc, target);
+
+            replace(stream, smaller.getCOSObject(), task);
+        } catch (IOException | RuntimeException e) {
+            skipped.incrementAndGet();
+        }
+
+        return null;
+    }
+
+    /**
+     * Replace the samples of an image with those of a smaller one, if it is 
+     * actually smaller.
+     */
+    private void replace(COSStream stream, COSStream smaller, Task task) 
+            throws IOException {
+        try {
+            final long oldLength = stream.getLength();
+            final long newLength = smaller.getLength();
+            if (newLength >= oldLength) {
+                skipped.incrementAndGet();
+
+                return;
+            }
+
+            if (shared) {
+                COSStream original = new COSStream();
+                copy(stream, original);
+                originals.put(stream, original);
+            }
+            copy(smaller, stream);
+
+            task.length = newLength;
+            reduced.incrementAndGet();
+            before.addAndGet(oldLength);
+            after.addAndGet(newLength);
+        } finally {
+            smaller.close();
+        }
+    }
+
+    /**
+     * Copy the encoded samples of an image and the entries describing them.
+     */
+    private static void copy(COSStream from, COSStream to) throws IOException {
+        try (InputStream in = from.createRawInputStream();
+            OutputStream out = to.createRawOutputStream()) {
+            in.transferTo(out);
+        }
+        for (COSName key : SAMPLE_KEYS) {
+            to.setItem(key, from.getItem(key));
+        }
+    }
+
+    /**
+     * The processing of an image at a scale.
+     */
+    private static class Task {
+        final float scale;
+        Future<?> future;           // Null if the image is not reduced.
+        long length;                // Length of the result, 0 if not kept.
+
+        Task(float scale) {
+            this.scale = scale;
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * JobCancelledException is thrown by a CancelToken check to unwind a booklet 
+ * generation job that has been cancelled or has run out of time. It is an 
+ * IOException so that it follows the same path as a failed read or write.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.IOException;
+
+public class JobCancelledException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construct a JobCancelledException.
+     * @param message describing why the job was stopped.
+     */
+    public JobCancelledException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,231 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * JobHistory is a class that remembers the throughput of past jobs across 
+ * sessions, so that the time and output size of a new job can be estimated 
+ * before it is run.
+ *
+ * Jobs are grouped by the options that most affect their cost: the layout, 
+ * split output and image downsampling. For each group a running average is 
+ * kept of the time taken per source page and of the ratio of output bytes 
+ * to source bytes. Recent jobs carry more weight, so the averages follow 
+ * changes to the machine or the typical documents.
+ *
+ * The history file is read and written by DataFile, in the same directory 
+ * as the SourceCache file. A file that fails the checksum is ignored and the 
+ * history starts empty.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class JobHistory {
+
+    private final static String HISTORYFILE = "JobHistory.dat";
+    private final static int MAGIC = 0x50424748;    // "PBGH"
+    private final static int VERSION = 1;
+    private final static double WEIGHT = 0.25;      // Of the latest job.
+
+    // Used until a job of the same kind has been recorded.
+    private final static double DEFAULT_NANOS_PER_PAGE = 2_000_000;
+    private final static double DEFAULT_BYTES_RATIO = 1.1;
+
+    private static JobHistory history;
+
+    /**
+     * The averaged throughput of one kind of job.
+     */
+    public static class Rate {
+        private final int jobs;
+        private final double nanosPerPage;
+        private final double bytesRatio;
+
+        Rate(int jobs, double nanosPerPage, double bytesRatio) {
+            this.jobs = jobs;
+            this.nanosPerPage = nanosPerPage;
+            this.bytesRatio = bytesRatio;
+        }
+
+        /**
+         * @return the number of jobs recorded, 0 if the rate is a default.
+         */
+        public int getJobs() { return jobs; }
+
+        /**
+         * @return the average time taken per source page in nanoseconds.
+         */
+        public double getNanosPerPage() { return nanosPerPage; }
+
+        /**
+         * @return the average ratio of output bytes to source bytes.
+         */
+        public double getBytesRatio() { return bytesRatio; }
+    }
+
+    private final Path file;
+    private Map<String, Rate> entries;
+
+
+    /**
+     * Constructor.
+     *
+     * @param path of the history file.
+     */
+    public JobHistory(String path) {
+        file = Paths.get(path).toAbsolutePath();
+    }
+
+    /**
+     * @return the history shared by the application.
+     */
+    public static synchronized JobHistory getHistory() {
+        if (history == null)
+            history = new JobHistory(DataFile.get(HISTORYFILE).toString());
+
+        return history;
+    }
+
+    /**
+     * Get the averaged throughput for a kind of job.
+     *
+     * @param kind of job, as given by getKind().
+     * @return the recorded rate, or a default rate if no job of this kind 
+     * has been recorded.
+     */
+    public synchronized Rate get(String kind) {
+        load();
+
+        final Rate rate = entries.get(kind);
+        if (rate != null)
+            return rate;
+
+        return new Rate(0, DEFAULT_NANOS_PER_PAGE, DEFAULT_BYTES_RATIO);
+    }
+
+    /**
+     * Add a completed job to the history and save it.
+     *
+     * @param kind of job, as given by getKind().
+     * @param pages number of source pages in the job.
+     * @param sourceBytes estimated source bytes used by the job.
+     * @param outputBytes number of bytes written.
+     * @param nanos time taken by the job.
+     */
+    public synchronized void record(String kind, int pages, long sourceBytes, 
+            long outputBytes, long nanos) {
+        if (pages <= 0 || sourceBytes <= 0 || outputBytes <= 0)
+            return;
+
+        load();
+
+        final double nanosPerPage = (double)nanos / pages;
+        final double bytesRatio = (double)outputBytes / sourceBytes;
+        final Rate old = entries.get(kind);
+        if (old == null) {
+            entries.put(kind, new Rate(1, nanosPerPage, bytesRatio));
+        }
+        else {
+            // Plain average for the first few jobs, then weighted.
+            final double weight = Math.max(WEIGHT, 1.0 / (old.jobs + 1));
+            entries.put(kind, new Rate(old.jobs + 1, 
+                    old.nanosPerPage + weight * (nanosPerPage - old.nanosPerPage), 
+                    old.bytesRatio + weight * (bytesRatio - old.bytesRatio)));
+        }
+
+        save();
+    }
+
+    /**
+     * Get the name used to group similar jobs.
+     *
+     * @param layout name of the Layout used.
+     * @param split true if each signature is written to its own PDF.
+     * @param dpi maximum image resolution, 0 if the images are left as is.
+     * @return the kind of job.
+     */
+    public static String getKind(String layout, boolean split, float dpi) {
+        String kind = layout;
+        if (split)
+            kind += " split";
+        if (dpi > 0)
+            kind += " " + Math.round(dpi) + "dpi";
+
+        return kind;
+    }
+
+
+
+    /************************************************************************
+     * Support code for reading and writing the history file.
+     */
+
+    /**
+     * Read the history file, if it has not already been read.
+     */
+    private void load() {
+        if (entries != null)
+            return;
+
+        entries = new TreeMap<>();
+        try {
+            DataInputStream in = DataFile.read(file, MAGIC, VERSION);
+            if (in == null)
+                return;
+
+            final int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String kind = in.readUTF();
+                final int jobs = in.readInt();
+                final double nanosPerPage = in.readDouble();
+                entries.put(kind, new Rate(jobs, nanosPerPage, in.readDouble()));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring job history: " + e.getMessage());
+            entries = new TreeMap<>();
+        }
+    }
+
+    /**
+     * Write the history file.
+     */
+    private void save() {
+        try {
+            DataFile.write(file, MAGIC, VERSION, out -> {
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Rate> entry : entries.entrySet()) {
+                    final Rate rate = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(rate.jobs);
+                    out.writeDouble(rate.nanosPerPage);
+                    out.writeDouble(rate.bytesRatio);
+                }
+            });
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+}
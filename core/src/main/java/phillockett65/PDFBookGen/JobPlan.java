@@ -0,0 +1,194 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * JobPlan is a class that describes what a job will produce without running 
+ * it: the counts from the Signature, the number of sheets and blank pages, 
+ * and estimates of the output size and the time taken.
+ *
+ * The sheets and sides are counted from the imposition of the Layout in the 
+ * same way as the generator writes them: a side is only written if at least 
+ * one of its slots holds a page, and a sheet is only printed if at least 
+ * one of its sides is written, so a short last signature can need fewer 
+ * sheets than a full one.
+ *
+ * The estimates are based on the size of the source files, taken from the 
+ * SourceCache, and the throughput of past jobs of the same kind, taken from 
+ * the JobHistory, so creating a plan does not parse the source documents.
+ */
+package phillockett65.PDFBookGen;
+
+public class JobPlan {
+    private final int sourcePages;
+    private final int signatures;
+    private final int sheets;
+    private final int sides;
+    private final int blanks;
+    private final long sourceBytes;
+    private final long outputBytes;
+    private final long millis;
+    private final int pastJobs;
+
+    /**
+     * Construct a JobPlan.
+     * @param signature counts for the selected pages, null if none are selected.
+     * @param imposition of each signature, as given by Layout.getImposition().
+     * @param sourceBytes estimated source bytes used by the selected pages.
+     * @param rate throughput of past jobs of the same kind.
+     */
+    public JobPlan(Signature signature, int[][] imposition, long sourceBytes, 
+            JobHistory.Rate rate)
+    {
+        if (signature == null) {
+            sourcePages = 0;
+            signatures = 0;
+            blanks = 0;
+            sheets = 0;
+            sides = 0;
+        }
+        else {
+            sourcePages = signature.getOutputPageCount();
+            signatures = signature.getSigCount();
+            blanks = signature.getLastSigBlankCount();
+
+            final int full = signatures - 1;
+            final int last = signature.getLastSigPageCount();
+            sheets = full * countSheets(imposition, signature.getSigPageCount()) + 
+                countSheets(imposition, last);
+            sides = full * countSides(imposition, signature.getSigPageCount()) + 
+                countSides(imposition, last);
+        }
+        this.sourceBytes = sourceBytes;
+        outputBytes = Math.round(sourceBytes * rate.getBytesRatio());
+        millis = Math.round(sourcePages * rate.getNanosPerPage() / 1_000_000);
+        pastJobs = rate.getJobs();
+    }
+
+    /**
+     * @return the number of source pages in the generated document.
+     */
+    public int getSourcePages() { return sourcePages; }
+
+    /**
+     * @return the number of signatures that will be generated.
+     */
+    public int getSignatures() { return signatures; }
+
+    /**
+     * @return the number of sheets of paper that will be printed.
+     */
+    public int getSheets() { return sheets; }
+
+    /**
+     * @return the number of sheet sides, which is the number of pages in 
+     * the generated document.
+     */
+    public int getSides() { return sides; }
+
+    /**
+     * @return the number of blank pages in the last signature.
+     */
+    public int getBlanks() { return blanks; }
+
+    /**
+     * @return the estimated number of source bytes used.
+     */
+    public long getSourceBytes() { return sourceBytes; }
+
+    /**
+     * @return the estimated number of bytes written.
+     */
+    public long getOutputBytes() { return outputBytes; }
+
+    /**
+     * @return the estimated time taken in milliseconds.
+     */
+    public long getMillis() { return millis; }
+
+    /**
+     * @return the number of past jobs the estimates are based on, 0 if 
+     * default rates were used.
+     */
+    public int getPastJobs() { return pastJobs; }
+
+    @Override
+    public String toString() {
+        return String.format("source pages %8d\nsignatures   %8d\nsheets       %8d\n" + 
+            "sides        %8d\nblank pages  %8d\nsource       %8d KB\n" + 
+            "output      ~%8d KB\ntime        ~%8d ms (from %d past jobs)", 
+            sourcePages, signatures, sheets, sides, blanks, 
+            sourceBytes / 1024, outputBytes / 1024, millis, pastJobs);
+    }
+
+
+
+    /************************************************************************
+     * Support code for counting the sheets and sides.
+     */
+
+    /**
+     * @return true if a side holds at least one page of a signature.
+     */
+    private static boolean isWritten(int[] side, int pages) {
+        for (int slot : side) {
+            if (slot < pages)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Count the sides of a signature that are written.
+     *
+     * @param imposition of the signature.
+     * @param pages number of source pages in the signature.
+     * @return the number of sides holding at least one page.
+     */
+    private static int countSides(int[][] imposition, int pages) {
+        int count = 0;
+        for (int[] side : imposition) {
+            if (isWritten(side, pages))
+                count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Count the sheets of a signature that are printed.
+     *
+     * @param imposition of the signature, the front and reverse of each 
+     * sheet in turn.
+     * @param pages number of source pages in the signature.
+     * @return the number of sheets with at least one side written.
+     */
+    private static int countSheets(int[][] imposition, int pages) {
+        int count = 0;
+        for (int side = 0; side + 1 < imposition.length; side += 2) {
+            if (isWritten(imposition[side], pages) || 
+                    isWritten(imposition[side + 1], pages))
+                count++;
+        }
+
+        return count;
+    }
+
+}
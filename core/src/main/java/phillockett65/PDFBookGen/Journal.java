@@ -0,0 +1,203 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Journal is a class that records which signatures of a checkpointed job have 
+ * been written to their part files, so that a job that is stopped, or whose 
+ * JVM dies, can be restarted without generating those signatures again.
+ *
+ * The journal is a text file that starts with the settings of the job, 
+ * followed by a separator line and then a line for each signature written, 
+ * giving its index and the size of its part file. Each line is synced to 
+ * disk once the part file has been saved and synced, so a recorded 
+ * signature is always complete.
+ *
+ * A journal is only used if its settings match the job exactly. A recorded 
+ * signature is only skipped if its part file still has the recorded size. 
+ * A line cut short by a crash is ignored.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+public class Journal implements AutoCloseable {
+
+    private final static String HEADER = "PDFBookGen journal 1";
+    private final static String SEPARATOR = "-";
+
+    private final Path file;
+    private final Set<Integer> complete = new HashSet<>();
+    private final FileOutputStream out;
+    private boolean broken = false;     // Last line cut short?
+
+
+    /**
+     * Open the journal for a job, continuing an existing journal for the 
+     * same settings or starting a new one.
+     *
+     * @param path of the journal file.
+     * @param settings of the job, one per line.
+     * @param parts gives the part file path for a signature index.
+     */
+    public Journal(String path, List<String> settings, 
+            IntFunction<String> parts) throws IOException {
+        file = Paths.get(path);
+
+        final boolean resume = load(settings, parts);
+        out = new FileOutputStream(file.toFile(), resume);
+        try {
+            if (broken) {
+                write("\n");
+            }
+            if (!resume) {
+                StringBuilder builder = new StringBuilder(HEADER).append('\n');
+                for (String setting : settings) {
+                    builder.append(setting).append('\n');
+                }
+                builder.append(SEPARATOR).append('\n');
+                write(builder.toString());
+            }
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param index of the signature starting from 0.
+     * @return true if the signature has already been written.
+     */
+    public synchronized boolean isComplete(int index) {
+        return complete.contains(index);
+    }
+
+    /**
+     * @return the number of signatures already written.
+     */
+    public synchronized int getCompleteCount() {
+        return complete.size();
+    }
+
+    /**
+     * Record that a signature has been written to its part file.
+     *
+     * @param index of the signature starting from 0.
+     * @param path of the part file.
+     */
+    public synchronized void complete(int index, String path) throws IOException {
+        write(index + " " + Files.size(Paths.get(path)) + "\n");
+        complete.add(index);
+    }
+
+    /**
+     * Close the journal, leaving it in place for a restarted job.
+     */
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Close and remove the journal, once the job has completed.
+     */
+    public void delete() {
+        close();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Append a line to the journal and wait for it to reach the disk.
+     */
+    private void write(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.getFD().sync();
+    }
+
+    /**
+     * Read an existing journal, if its settings match.
+     *
+     * @return true if the journal can be continued, false otherwise.
+     */
+    private boolean load(List<String> settings, 
+            IntFunction<String> parts) {
+        if (!Files.exists(file))
+            return false;
+
+        final byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (IOException e) {
+            System.out.println("Ignoring journal: " + e.getMessage());
+
+            return false;
+        }
+
+        final List<String> lines = 
+            Arrays.asList(new String(data, StandardCharsets.UTF_8).split("\n"));
+        final int count = settings.size();
+        if (lines.size() < count + 2 || !HEADER.equals(lines.get(0)) || 
+                !settings.equals(lines.subList(1, count + 1)) || 
+                !SEPARATOR.equals(lines.get(count + 1))) {
+            System.out.println("Ignoring journal for different settings: " + file);
+
+            return false;
+        }
+
+        for (String line : lines.subList(count + 2, lines.size())) {
+            final String[] fields = line.split(" ");
+            if (fields.length != 2)
+                continue;
+
+            try {
+                final int index = Integer.parseInt(fields[0]);
+                final long size = Long.parseLong(fields[1]);
+                final File part = new File(parts.apply(index));
+                if (part.length() == size)
+                    complete.add(index);
+            } catch (NumberFormatException e) {
+                // Cut short by a crash.
+            }
+        }
+
+        broken = data[data.length - 1] != '\n';
+
+        return true;
+    }
+
+}
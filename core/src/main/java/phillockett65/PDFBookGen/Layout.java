@@ -0,0 +1,72 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Layout is the interface implemented by the page imposition schemes. A 
+ * Layout decides which page of a signature goes into each slot on each side 
+ * of each sheet of paper, and supplies the matrices that scale, rotate and 
+ * position a source page into a slot.
+ * 
+ * The matrices depend only on the output sheet size and the source page 
+ * geometry, so they are calculated once per job for each distinct source 
+ * geometry (see TransformTable) rather than once per sheet.
+ */
+package phillockett65.PDFBookGen;
+
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.util.Matrix;
+
+public interface Layout {
+
+    /**
+     * @return the name of the layout, for example "2-up".
+     */
+    public String getName();
+
+    /**
+     * @return the number of source pages on one side of a sheet.
+     */
+    public int getSlotCount();
+
+    /**
+     * @return the number of source pages on both sides of a sheet.
+     */
+    public default int getPagesPerSheet() { return 2 * getSlotCount(); }
+
+    /**
+     * Build the imposition table for a signature. The table has an entry for 
+     * each side of each sheet, front then reverse, and each entry holds the 
+     * page offset within the signature for every slot on that side.
+     * @param sheetCount number of sheets of paper in a signature.
+     * @return the page offsets indexed by [side][slot].
+     */
+    public int[][] getImposition(int sheetCount);
+
+    /**
+     * Calculate the matrices that place a source page into each slot.
+     * @param sheet size of the output sheet of paper.
+     * @param source size of the source page.
+     * @param rotate true if the reverse side is rotated 180 degrees.
+     * @return the matrices indexed by [front (0) or reverse (1)][slot].
+     */
+    public Matrix[][] getTransforms(PDRectangle sheet, PDRectangle source, 
+            boolean rotate);
+
+}
@@ -0,0 +1,921 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Linearizer is a class that writes a PDFDocument as a linearized ("fast web 
+ * view") PDF, as described in Annex F of the PDF specification. PDFBox does 
+ * not write linearized files itself, so this class lays out and serializes 
+ * the COS objects directly.
+ *
+ * The file is written in the following order:
+ *   o Header
+ *   o Linearization parameter dictionary
+ *   o First page cross-reference table and trailer
+ *   o Document catalog and the objects needed to open the document
+ *   o Primary hint stream (page offset and shared object hint tables)
+ *   o First page object and all the objects it uses
+ *   o Each remaining page object followed by the objects only it uses
+ *   o Objects shared by the remaining pages
+ *   o All other objects, starting with the page tree
+ *   o Main cross-reference table and trailer
+ *
+ * This allows a viewer to display the first page as soon as the part of the 
+ * file up to the end of the first page section (/E) has been received, and to 
+ * use the hint tables to fetch any other page directly.
+ *
+ * Object numbers are assigned so that the first page section is covered by 
+ * the first page cross-reference table and the objects of each page are 
+ * numbered consecutively, as the hint tables require.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+public class Linearizer {
+
+    // Catalog entries needed to open the document (Part 4).
+    private static final Set<COSName> OPEN_KEYS = Set.of(
+            COSName.VIEWER_PREFERENCES, COSName.PAGE_MODE, COSName.THREADS, 
+            COSName.OPEN_ACTION, COSName.ACRO_FORM);
+
+    /**
+     * How an indirect object is used, which decides where it is placed.
+     */
+    private static class Usage {
+        boolean open = false;       // Needed to open the document.
+        boolean first = false;      // Used by the first page.
+        int page = -1;              // The other page using it, if only one.
+        int pages = 0;              // Number of other pages using it.
+        boolean other = false;      // Used by anything else.
+    }
+
+    /**
+     * An indirect object to be written.
+     */
+    private static class Entry {
+        final COSBase object;
+        int number;                 // Object number.
+        byte[] head;                // Serialized object, up to stream data.
+        long data;                  // Length of the stream data, if any.
+        byte[] tail;                // Serialized end of the object.
+        long offset;                // Position in the file.
+
+        Entry(COSBase object) {
+            this.object = object;
+        }
+
+        long length() { return head.length + data + tail.length; }
+    }
+
+    private final PDDocument doc;
+    private final COSDictionary trailer;
+    private final COSDictionary catalog;
+    private final List<COSDictionary> pages = new ArrayList<>();
+
+    private final Map<COSBase, Entry> entries = new IdentityHashMap<>();
+    private final Map<COSBase, Usage> usage = new IdentityHashMap<>();
+
+    private final List<Entry> part4 = new ArrayList<>();
+    private final List<Entry> part6 = new ArrayList<>();
+    private final List<List<Entry>> part7 = new ArrayList<>();
+    private final List<Entry> part8 = new ArrayList<>();
+    private final List<Entry> part9 = new ArrayList<>();
+
+    private int mainCount;          // Objects in the main xref, including 0.
+    private int totalCount;         // Objects in both xrefs, including 0.
+    private int linearizedNumber;
+    private int hintNumber;
+
+    private long firstPageEnd;      // The /E value.
+    private long fileLength;        // The /L value.
+
+
+    /**
+     * Write a document as a linearized PDF.
+     *
+     * @param doc the document to write.
+     * @param out stream to write the PDF to.
+     * @return the number of bytes needed to display the first page.
+     */
+    public static long save(PDDocument doc, OutputStream out) throws IOException {
+        Linearizer linearizer = new Linearizer(doc);
+        linearizer.write(out);
+
+        return linearizer.firstPageEnd;
+    }
+
+    /**
+     * Write a document as a linearized PDF.
+     *
+     * @param doc the document to write.
+     * @param path file path for the PDF.
+     * @return the number of bytes needed to display the first page.
+     */
+    public static long save(PDDocument doc, String path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            return save(doc, out);
+        }
+    }
+
+    private Linearizer(PDDocument doc) throws IOException {
+        if (doc.isEncrypted())
+            throw new IOException("Linearization of encrypted documents is not supported");
+
+        this.doc = doc;
+        trailer = doc.getDocument().getTrailer();
+        catalog = doc.getDocumentCatalog().getCOSObject();
+        for (PDPage page : doc.getPages()) {
+            pages.add(page.getCOSObject());
+        }
+        if (pages.isEmpty())
+            throw new IOException("Cannot linearize a document without pages");
+    }
+
+
+
+    /************************************************************************
+     * Support code for classifying the objects.
+     */
+
+    /**
+     * Get the indirect object referred to by a value.
+     *
+     * @param value a dictionary or array entry.
+     * @return the object written indirectly for the value, null if the value 
+     * is written directly.
+     */
+    private static COSBase indirect(COSBase value) {
+        if (value instanceof COSObject) {
+            COSBase object = ((COSObject)value).getObject();
+            return (object == null) ? COSNull.NULL : object;
+        }
+
+        if ((value instanceof COSDictionary) && !value.isDirect())
+            return value;
+
+        return null;
+    }
+
+    private static boolean isPage(COSBase object) {
+        return (object instanceof COSDictionary) && 
+            COSName.PAGE.equals(((COSDictionary)object).getCOSName(COSName.TYPE));
+    }
+
+    /**
+     * Find the indirect objects reachable from a value. Page objects other 
+     * than the starting value are not entered and the page tree is not 
+     * climbed, so a page only reaches the objects it actually uses.
+     *
+     * @param start value to start from.
+     * @param top true if start is itself an indirect object.
+     * @return the indirect objects in the order they were found.
+     */
+    private static List<COSBase> reach(COSBase start, boolean top) {
+        List<COSBase> found = new ArrayList<>();
+        Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<COSBase> pending = new ArrayDeque<>();
+
+        COSBase first = top ? start : indirect(start);
+        if (first != null) {
+            if (!isPage(first) || top) {
+                visited.add(first);
+                found.add(first);
+                pending.push(first);
+            }
+        }
+        else {
+            pending.push(start);
+        }
+
+        while (!pending.isEmpty()) {
+            final COSBase value = pending.pop();
+            List<COSBase> children = new ArrayList<>();
+            if (value instanceof COSDictionary) {
+                final boolean page = isPage(value);
+                for (Map.Entry<COSName, COSBase> item : ((COSDictionary)value).entrySet()) {
+                    if (page && COSName.PARENT.equals(item.getKey()))
+                        continue;
+                    children.add(item.getValue());
+                }
+            }
+            else if (value instanceof COSArray) {
+                for (COSBase item : (COSArray)value) {
+                    children.add(item);
+                }
+            }
+
+            // Push in reverse so that objects are found in reading order.
+            for (int i = children.size() - 1; i >= 0; --i) {
+                final COSBase child = children.get(i);
+                final COSBase object = indirect(child);
+                if (object == null) {
+                    pending.push(child);
+                }
+                else if (!isPage(object) && visited.add(object)) {
+                    found.add(object);
+                    pending.push(object);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private Usage usage(COSBase object) {
+        return usage.computeIfAbsent(object, k -> new Usage());
+    }
+
+    /**
+     * Work out which part of the file each indirect object belongs in.
+     */
+    private void classify() {
+        List<COSBase> order = new ArrayList<>();
+
+        // Pages.
+        for (int i = 0; i < pages.size(); ++i) {
+            for (COSBase object : reach(pages.get(i), true)) {
+                Usage use = usage(object);
+                if (i == 0) {
+                    use.first = true;
+                }
+                else if (use.page != i) {
+                    use.page = i;
+                    use.pages++;
+                }
+                order.add(object);
+            }
+        }
+
+        // Document level objects, starting with the catalog and page tree.
+        usage(catalog).open = true;
+        order.add(catalog);
+        List<COSName> keys = new ArrayList<>(catalog.keySet());
+        keys.remove(COSName.PAGES);
+        keys.add(0, COSName.PAGES);
+        for (COSName key : keys) {
+            final boolean open = OPEN_KEYS.contains(key);
+            for (COSBase object : reach(catalog.getItem(key), false)) {
+                if (open)
+                    usage(object).open = true;
+                else
+                    usage(object).other = true;
+                order.add(object);
+            }
+        }
+
+        for (COSName key : trailer.keySet()) {
+            if (COSName.ROOT.equals(key) || COSName.ID.equals(key))
+                continue;
+            for (COSBase object : reach(trailer.getItem(key), false)) {
+                usage(object).other = true;
+                order.add(object);
+            }
+        }
+
+        // Anything else that can be reached, such as the page tree parents.
+        for (COSBase object : reachAll()) {
+            Usage use = usage(object);
+            if (isUnused(use))
+                use.other = true;
+            order.add(object);
+        }
+
+        for (int i = 1; i < pages.size(); ++i) {
+            part7.add(new ArrayList<>());
+        }
+
+        // Place each object once, in the order it was first found, with each 
+        // page object at the start of its page.
+        part6.add(entry(pages.get(0)));
+        for (int i = 1; i < pages.size(); ++i) {
+            part7.get(i - 1).add(entry(pages.get(i)));
+        }
+
+        List<Entry> firstShared = new ArrayList<>();
+        for (COSBase object : order) {
+            if (entries.containsKey(object))
+                continue;
+
+            final Usage use = usage.get(object);
+            final Entry entry = entry(object);
+            if (use.open)
+                part4.add(entry);
+            else if (use.first && !use.other && use.pages == 0)
+                part6.add(entry);
+            else if (use.first)
+                firstShared.add(entry);
+            else if (use.pages == 1 && !use.other)
+                part7.get(use.page - 1).add(entry);
+            else if (use.pages > 1)
+                part8.add(entry);
+            else
+                part9.add(entry);
+        }
+        part6.addAll(firstShared);
+    }
+
+    private static boolean isUnused(Usage use) {
+        return !use.open && !use.first && use.pages == 0 && !use.other;
+    }
+
+    /**
+     * Find every indirect object reachable from the trailer, including those 
+     * only reachable through the page tree parent links.
+     */
+    private List<COSBase> reachAll() {
+        List<COSBase> found = new ArrayList<>();
+        Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<COSBase> pending = new ArrayDeque<>();
+        pending.push(trailer);
+
+        while (!pending.isEmpty()) {
+            final COSBase value = pending.pop();
+            Iterable<COSBase> children;
+            if (value instanceof COSDictionary)
+                children = ((COSDictionary)value).getValues();
+            else if (value instanceof COSArray)
+                children = (COSArray)value;
+            else
+                continue;
+
+            for (COSBase child : children) {
+                final COSBase object = indirect(child);
+                if (object == null) {
+                    pending.push(child);
+                }
+                else if (visited.add(object)) {
+                    found.add(object);
+                    pending.push(object);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private Entry entry(COSBase object) {
+        return entries.computeIfAbsent(object, k -> new Entry(k));
+    }
+
+
+
+    /************************************************************************
+     * Support code for serializing the objects.
+     */
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private void writeReference(OutputStream out, COSBase object) throws IOException {
+        final Entry entry = entries.get(object);
+        if (entry == null || object == COSNull.NULL)
+            out.write(ascii("null"));
+        else
+            out.write(ascii(entry.number + " 0 R"));
+    }
+
+    /**
+     * Write a value directly, or as a reference if it is an indirect object.
+     */
+    private void writeValue(OutputStream out, COSBase value) throws IOException {
+        final COSBase object = indirect(value);
+        if (object != null) {
+            writeReference(out, object);
+        }
+        else {
+            writeDirect(out, value);
+        }
+    }
+
+    /**
+     * Write a value directly.
+     */
+    private void writeDirect(OutputStream out, COSBase value) throws IOException {
+        if (value instanceof COSDictionary) {
+            writeDictionary(out, (COSDictionary)value, false);
+        }
+        else if (value instanceof COSArray) {
+            out.write('[');
+            boolean space = false;
+            for (COSBase item : (COSArray)value) {
+                if (space)
+                    out.write(' ');
+                writeValue(out, item);
+                space = true;
+            }
+            out.write(']');
+        }
+        else if (value instanceof COSName) {
+            ((COSName)value).writePDF(out);
+        }
+        else if (value instanceof COSString) {
+            COSWriter.writeString((COSString)value, out);
+        }
+        else if (value instanceof COSInteger) {
+            ((COSInteger)value).writePDF(out);
+        }
+        else if (value instanceof COSFloat) {
+            ((COSFloat)value).writePDF(out);
+        }
+        else if (value instanceof COSBoolean) {
+            ((COSBoolean)value).writePDF(out);
+        }
+        else {
+            out.write(ascii("null"));
+        }
+    }
+
+    private void writeDictionary(OutputStream out, COSDictionary dict, 
+            boolean stream) throws IOException {
+        out.write(ascii("<<"));
+        for (Map.Entry<COSName, COSBase> item : dict.entrySet()) {
+            if (stream && COSName.LENGTH.equals(item.getKey()))
+                continue;
+            if (item.getValue() == null)
+                continue;
+
+            item.getKey().writePDF(out);
+            out.write(' ');
+            writeValue(out, item.getValue());
+            out.write('\n');
+        }
+        if (stream)
+            out.write(ascii("/Length " + ((COSStream)dict).getLength()));
+        out.write(ascii(">>"));
+    }
+
+    /**
+     * Serialize an indirect object, apart from any stream data.
+     */
+    private void serialize(Entry entry) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        head.write(ascii(entry.number + " 0 obj\n"));
+
+        final COSBase object = entry.object;
+        if (object instanceof COSStream) {
+            COSStream stream = (COSStream)object;
+            writeDictionary(head, stream, true);
+            head.write(ascii("\nstream\n"));
+            entry.data = stream.getLength();
+            entry.tail = ascii("\nendstream\nendobj\n");
+        }
+        else {
+            writeDirect(head, object);
+            entry.data = 0;
+            entry.tail = ascii("\nendobj\n");
+        }
+        entry.head = head.toByteArray();
+    }
+
+    private void writeEntry(CountingOutputStream out, Entry entry) throws IOException {
+        if (out.count != entry.offset)
+            throw new IOException("Linearized object " + entry.number + " is out of place");
+
+        out.write(entry.head);
+        if (entry.object instanceof COSStream) {
+            long copied = 0;
+            try (InputStream data = ((COSStream)entry.object).createRawInputStream()) {
+                copied = data.transferTo(out);
+            }
+            if (copied != entry.data)
+                throw new IOException("Stream length of object " + entry.number + " changed");
+        }
+        out.write(entry.tail);
+    }
+
+
+
+    /************************************************************************
+     * Support code for the hint tables.
+     */
+
+    /**
+     * Writes values as packed bit fields, most significant bit first.
+     */
+    private static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int buffer = 0;
+        private int used = 0;
+
+        void write(long value, int bits) {
+            for (int bit = bits - 1; bit >= 0; --bit) {
+                buffer = (buffer << 1) | (int)((value >>> bit) & 1);
+                if (++used == 8) {
+                    out.write(buffer);
+                    buffer = 0;
+                    used = 0;
+                }
+            }
+        }
+
+        void flush() {
+            if (used > 0)
+                write(0, 8 - used);
+        }
+
+        int size() { return out.size(); }
+
+        byte[] toByteArray() {
+            flush();
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * @return the number of bits needed to represent a value.
+     */
+    private static int bits(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Build the primary hint stream data. Hint table positions ignore the 
+     * hint stream itself, as the specification requires.
+     *
+     * @param at position of each object as if the hint stream were absent.
+     * @param sharedOffset receives the offset of the shared object table.
+     */
+    private byte[] hints(Map<Entry, Long> at, long[] sharedOffset) {
+        final int count = pages.size();
+
+        // Objects and length of each page.
+        long[] objects = new long[count];
+        long[] lengths = new long[count];
+        List<List<Integer>> shared = new ArrayList<>();
+
+        List<Entry> sharedEntries = new ArrayList<>(part6);
+        sharedEntries.addAll(part8);
+        Map<COSBase, Integer> sharedIndex = new IdentityHashMap<>();
+        for (int i = 0; i < sharedEntries.size(); ++i) {
+            sharedIndex.put(sharedEntries.get(i).object, i);
+        }
+
+        for (int i = 0; i < count; ++i) {
+            List<Entry> group = (i == 0) ? part6 : part7.get(i - 1);
+            objects[i] = group.size();
+            for (Entry entry : group) {
+                lengths[i] += entry.length();
+            }
+
+            List<Integer> ids = new ArrayList<>();
+            if (i > 0) {
+                for (COSBase object : reach(pages.get(i), true)) {
+                    final Integer index = sharedIndex.get(object);
+                    if (index != null)
+                        ids.add(index);
+                }
+            }
+            shared.add(ids);
+        }
+
+        long minObjects = Long.MAX_VALUE, maxObjects = 0;
+        long minLength = Long.MAX_VALUE, maxLength = 0;
+        int maxShared = 0;
+        for (int i = 0; i < count; ++i) {
+            minObjects = Math.min(minObjects, objects[i]);
+            maxObjects = Math.max(maxObjects, objects[i]);
+            minLength = Math.min(minLength, lengths[i]);
+            maxLength = Math.max(maxLength, lengths[i]);
+            maxShared = Math.max(maxShared, shared.get(i).size());
+        }
+        final int objectBits = bits(maxObjects - minObjects);
+        final int lengthBits = bits(maxLength - minLength);
+        final int sharedBits = bits(maxShared);
+        final int idBits = bits(sharedEntries.size());
+
+        // Page offset hint table, content streams are treated as the whole 
+        // page as they are not interleaved with the other page objects.
+        BitWriter w = new BitWriter();
+        w.write(minObjects, 32);
+        w.write(at.get(part6.get(0)), 32);
+        w.write(objectBits, 16);
+        w.write(minLength, 32);
+        w.write(lengthBits, 16);
+        w.write(0, 32);
+        w.write(0, 16);
+        w.write(minLength, 32);
+        w.write(lengthBits, 16);
+        w.write(sharedBits, 16);
+        w.write(idBits, 16);
+        w.write(0, 16);
+        w.write(4, 16);
+
+        for (int i = 0; i < count; ++i)
+            w.write(objects[i] - minObjects, objectBits);
+        w.flush();
+        for (int i = 0; i < count; ++i)
+            w.write(lengths[i] - minLength, lengthBits);
+        w.flush();
+        for (int i = 0; i < count; ++i)
+            w.write(shared.get(i).size(), sharedBits);
+        w.flush();
+        for (int i = 0; i < count; ++i)
+            for (int id : shared.get(i))
+                w.write(id, idBits);
+        w.flush();
+        // Numerators use 0 bits, content offsets are 0 and use 0 bits.
+        for (int i = 0; i < count; ++i)
+            w.write(lengths[i] - minLength, lengthBits);
+        w.flush();
+
+        sharedOffset[0] = w.size();
+
+        // Shared object hint table, each object is a group of its own.
+        long minGroup = Long.MAX_VALUE, maxGroup = 0;
+        for (Entry entry : sharedEntries) {
+            minGroup = Math.min(minGroup, entry.length());
+            maxGroup = Math.max(maxGroup, entry.length());
+        }
+        final int groupBits = bits(maxGroup - minGroup);
+
+        final boolean others = !part8.isEmpty();
+        w.write(others ? part8.get(0).number : 0, 32);
+        w.write(others ? at.get(part8.get(0)) : 0, 32);
+        w.write(part6.size(), 32);
+        w.write(sharedEntries.size(), 32);
+        w.write(0, 16);
+        w.write(minGroup, 32);
+        w.write(groupBits, 16);
+
+        for (Entry entry : sharedEntries)
+            w.write(entry.length() - minGroup, groupBits);
+        w.flush();
+        for (int i = 0; i < sharedEntries.size(); ++i)
+            w.write(0, 1);
+        w.flush();
+
+        return w.toByteArray();
+    }
+
+
+
+    /************************************************************************
+     * Support code for laying out and writing the file.
+     */
+
+    /**
+     * An OutputStream that counts the bytes written.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static String pad(long value) {
+        return String.format("%10d", value);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder("<");
+        for (byte b : bytes) {
+            builder.append(String.format("%02X", b));
+        }
+
+        return builder.append('>').toString();
+    }
+
+    private byte[] header() {
+        return ascii("%PDF-" + doc.getVersion() + "\n%âãÏÓ\n");
+    }
+
+    private byte[] linearizationDictionary(long hintOffset, long hintLength, 
+            long mainXref) {
+        final Entry page = part6.get(0);
+
+        return ascii(linearizedNumber + " 0 obj\n<</Linearized 1 /L " + pad(fileLength) + 
+            " /H [" + pad(hintOffset) + " " + pad(hintLength) + "] /O " + page.number + 
+            " /E " + pad(firstPageEnd) + " /N " + pages.size() + " /T " + pad(mainXref) + 
+            ">>\nendobj\n");
+    }
+
+    private String id() throws IOException {
+        COSBase value = trailer.getDictionaryObject(COSName.ID);
+        if ((value instanceof COSArray) && (((COSArray)value).size() == 2)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeDirect(out, value);
+
+            return out.toString(StandardCharsets.ISO_8859_1);
+        }
+
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(ascii(Long.toString(System.currentTimeMillis())));
+            md5.update(ascii(Long.toString(System.nanoTime())));
+            md5.update(ascii(Integer.toString(entries.size())));
+            final String id = hex(md5.digest());
+
+            return "[" + id + " " + id + "]";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private byte[] firstPageXref(long[] offsets, long mainXref, String id) 
+            throws IOException {
+        StringBuilder xref = new StringBuilder();
+        xref.append("xref\n").append(linearizedNumber).append(' ')
+            .append(totalCount - linearizedNumber).append('\n');
+        for (long offset : offsets) {
+            xref.append(String.format("%010d 00000 n\r\n", offset));
+        }
+        xref.append("trailer\n<</Size ").append(totalCount)
+            .append(" /Root ").append(entries.get(catalog).number).append(" 0 R");
+
+        COSBase info = indirect(trailer.getItem(COSName.INFO));
+        if (info != null && entries.containsKey(info))
+            xref.append(" /Info ").append(entries.get(info).number).append(" 0 R");
+
+        xref.append(" /ID ").append(id).append(" /Prev ").append(pad(mainXref))
+            .append(">>\nstartxref\n0\n%%EOF\n");
+
+        return ascii(xref.toString());
+    }
+
+    private byte[] mainXrefHead() {
+        return ascii("xref\n0 " + mainCount + "\n");
+    }
+
+    private byte[] mainXref(List<Entry> main, long firstXref) {
+        StringBuilder xref = new StringBuilder();
+        xref.append("0000000000 65535 f\r\n");
+        for (Entry entry : main) {
+            xref.append(String.format("%010d 00000 n\r\n", entry.offset));
+        }
+        xref.append("trailer\n<</Size ").append(mainCount).append(">>\nstartxref\n")
+            .append(firstXref).append("\n%%EOF\n");
+
+        return ascii(xref.toString());
+    }
+
+    private void write(OutputStream output) throws IOException {
+        classify();
+
+        // Number the main section (parts 7, 8 and 9) from 1 in file order.
+        List<Entry> main = new ArrayList<>();
+        for (List<Entry> group : part7)
+            main.addAll(group);
+        main.addAll(part8);
+        main.addAll(part9);
+
+        int number = 1;
+        for (Entry entry : main)
+            entry.number = number++;
+        mainCount = number;
+
+        // Number the first page section (parts 2, 4, 5 and 6).
+        linearizedNumber = number++;
+        for (Entry entry : part4)
+            entry.number = number++;
+        hintNumber = number++;
+        for (Entry entry : part6)
+            entry.number = number++;
+        totalCount = number;
+
+        for (Entry entry : entries.values())
+            serialize(entry);
+
+        final String id = id();
+
+        // Lay out everything up to the hint stream, the sizes of the padded 
+        // linearization dictionary and first page xref do not change.
+        final byte[] header = header();
+        final long dictLength = linearizationDictionary(0, 0, 0).length;
+        final long xrefLength = firstPageXref(new long[totalCount - linearizedNumber], 0, id).length;
+
+        long position = header.length + dictLength + xrefLength;
+        for (Entry entry : part4) {
+            entry.offset = position;
+            position += entry.length();
+        }
+        final long hintOffset = position;
+
+        // Lay out the rest as if the hint stream were absent.
+        Map<Entry, Long> at = new IdentityHashMap<>();
+        List<Entry> rest = new ArrayList<>(part6);
+        rest.addAll(main);
+        for (Entry entry : rest) {
+            at.put(entry, position);
+            position += entry.length();
+        }
+
+        long[] sharedOffset = new long[1];
+        final byte[] data = hints(at, sharedOffset);
+        final byte[] hint = ascii(hintNumber + " 0 obj\n<</S " + sharedOffset[0] + 
+            " /Length " + data.length + ">>\nstream\n");
+        final byte[] hintEnd = ascii("\nendstream\nendobj\n");
+        final long hintLength = hint.length + data.length + hintEnd.length;
+
+        for (Entry entry : rest)
+            entry.offset = at.get(entry) + hintLength;
+
+        final Entry lastFirst = part6.get(part6.size() - 1);
+        firstPageEnd = lastFirst.offset + lastFirst.length();
+
+        final long mainXref = position + hintLength;
+        final byte[] xrefHead = mainXrefHead();
+        final long firstEntry = mainXref + xrefHead.length;
+
+        final long firstXref = header.length + dictLength;
+        final byte[] xrefTail = mainXref(main, firstXref);
+        fileLength = firstEntry + xrefTail.length;
+
+        // First page xref offsets, in object number order.
+        long[] offsets = new long[totalCount - linearizedNumber];
+        offsets[0] = header.length;
+        for (Entry entry : part4)
+            offsets[entry.number - linearizedNumber] = entry.offset;
+        offsets[hintNumber - linearizedNumber] = hintOffset;
+        for (Entry entry : part6)
+            offsets[entry.number - linearizedNumber] = entry.offset;
+
+        // Now write it all out.
+        CountingOutputStream out = new CountingOutputStream(output);
+        out.write(header);
+        out.write(linearizationDictionary(hintOffset, hintLength, firstEntry));
+        out.write(firstPageXref(offsets, mainXref, id));
+        for (Entry entry : part4)
+            writeEntry(out, entry);
+        out.write(hint);
+        out.write(data);
+        out.write(hintEnd);
+        for (Entry entry : rest)
+            writeEntry(out, entry);
+        out.write(xrefHead);
+        out.write(xrefTail);
+        out.flush();
+
+        if (out.count != fileLength)
+            throw new IOException("Linearized file length does not match");
+    }
+
+}
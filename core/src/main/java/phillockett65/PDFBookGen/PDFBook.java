@@ -0,0 +1,1997 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+ /*
+ * As a standalone file, PDFBookGen is a simple application to generate a booklet
+ * from of a source PDF document. It requires 2 parameters, the source PDF and
+ * the name of the new PDF. However, it can be used as a java class, in which
+ * case PDFBookGen.main() should be superseded.
+ *
+ * Example usage:
+ *  java -jar path-to-PDFBookGen.jar path-to-source.pdf path-to-new.pdf
+ *
+ * Dependencies:
+ *  PDFbox (pdfbox-app-2.0.19.jar)
+ *  https://pdfbox.apache.org/download.cgi
+ *
+ * This code supports multi-sheet sections. For more information on bookbinding
+ * terms and techniques refer to:
+ *  https://en.wikipedia.org/wiki/Bookbinding#Terms_and_techniques
+ *  https://www.formaxprinting.com/blog/2016/11/
+ *      booklet-layout-how-to-arrange-the-pages-of-a-saddle-stitched-booklet/
+ *  https://www.studentbookbinding.co.uk/blog/
+ *      how-to-set-up-pagination-section-sewn-bindings
+ *
+ * The document is processed in groups of 4 pages for each sheet of paper, where
+ * each page is imported as a form XObject. The 4th page is rotated anti-
+ * clockwise and scaled to fit on the bottom half of one side of the sheet. The
+ * 1st page is rotated anti-clockwise and scaled to fit on the top half of the
+ * same side of the sheet. On the reverse side, the 2nd page is rotated
+ * clockwise and scaled to fit on the top half and the 3rd page is rotated
+ * clockwise and scaled to fit on the bottom half. This process is repeated for
+ * all groups of 4 pages in the source document.
+ *
+ * The arrangement is supplied by a Layout, so the 4-up and 8-up layouts 
+ * place 8 or 16 pages on each sheet in the same way.
+ *
+ * Optionally each signature can be written to its own numbered PDF, the 
+ * files being saved by a pool of writer threads while the following 
+ * signatures are being generated. The parts can then be concatenated into a 
+ * single PDF without generating the booklet again.
+ *
+ * The source pages come from a PageSequence, so several PDFs, or page 
+ * ranges of them, can be imposed as one booklet. Each source is only open 
+ * while its pages are being imported.
+ *
+ * The sources can be held in memory or read from a stream, and the booklet 
+ * can be written to a stream instead of a file, so a service can generate 
+ * booklets without temporary files. A job written to a stream is not added 
+ * to the JobHistory, and on the command line its sources are not added to 
+ * the SourceCache, so it does not write to disk at all.
+ *
+ * Pages that repeat within a source are imported once into each output 
+ * document and share one form XObject.
+ *
+ * Optionally the resources resolved from the source documents are held in a 
+ * BoundedResourceCache instead of the PDFBox default, which shows the hits 
+ * and misses and keeps the heap used in check on large image-heavy sources.
+ *
+ * Optionally the images on the imported pages are downsampled by an 
+ * ImageOptimizer to the resolution they need on the sheet.
+ *
+ * Optionally the uncompressed streams, such as the sheet content, are Flate 
+ * compressed in parallel by a StreamCompressor before each PDF is saved.
+ *
+ * Optionally the PDFs are written linearized ("fast web view") by the 
+ * Linearizer, so a viewer can show the first page before the whole file has 
+ * been received.
+ *
+ * Generation runs as a pipeline of three stages connected by bounded queues: 
+ * reading and importing the source pages, composing the sheets and writing 
+ * the output. StageMetrics show which stage is the bottleneck.
+ *
+ * Optionally a PageReport of what each source page cost to import is written 
+ * alongside the output.
+ *
+ * Optionally the imported pages share the objects of the source documents 
+ * instead of cloning them, which saves the time and memory of the copies. 
+ * The sources are then kept open until the output has been saved and split 
+ * signatures are saved one at a time.
+ *
+ * Optionally a job is checkpointed: each signature is written to a part file 
+ * and recorded in a Journal, so a restarted job with the same settings only 
+ * generates the signatures that are missing and then joins the parts.
+ *
+ * Optionally further booklets, with other sheet sizes or signature sizes, are 
+ * generated by the same job. The source pages are imported once and the 
+ * forms reused, so each further booklet only costs composing and writing 
+ * its sheets.
+ *
+ * A JobPlan of what a job will produce, including estimates of the output 
+ * size and time taken, is available without running the job. Completed jobs 
+ * are added to the JobHistory the estimates are based on.
+ *
+ * Java Flight Recorder events are produced for the job, each signature, each 
+ * sheet side and each save, see GenerationEvents.
+ *
+ * Several jobs can run in one JVM, each waiting for an AdmissionController 
+ * to admit it when its estimated memory need fits in a shared heap budget. 
+ * The command line version runs a batch file of jobs this way.
+ *
+ * A job can be stopped early through a CancelToken or a time limit. These are 
+ * checked between sheets and signatures and while the sources are loaded, 
+ * and a stopped job closes the documents and removes the files it has 
+ * written. Each PDF is written to a temporary file and moved into place once 
+ * complete, so an existing file at the output path is never left half 
+ * written or removed by a failed job.
+ *
+ * Documents are created and loaded through the ResourceMonitor, which keeps 
+ * count of the open documents, scratch buffer bytes and file handles.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+
+/**
+ *
+ * @author Phil
+ */
+public class PDFBook {
+
+    private PDRectangle pageSize = PDRectangle.LETTER;
+    private Layout layout = getLayout("2-up");
+    private int sheetCount = 1;
+    private int firstPage = 0;
+    private int lastPage = 0;
+    private boolean rotate = true;      // Required?
+    private boolean split = false;      // One PDF per signature?
+    private boolean concatenate = false;
+    private boolean checkpoint = false; // Resumable via part files?
+    private boolean linearize = false;  // Fast web view output?
+    private float imageDPI = 0;         // Image resolution, 0 to keep as is.
+    private int compressLevel = 0;      // Flate level, 0 for no compression.
+    private boolean report = false;     // Write a per page cost report?
+    private boolean sharedObjects = false; // Refer to the source objects?
+    private BoundedResourceCache resourceCache = null; // PDFBox's if null.
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private CancelToken token = new CancelToken();
+    private long timeLimit = 0;         // Milliseconds, 0 for no limit.
+    private long deadline = Long.MAX_VALUE; // System.nanoTime() of the limit.
+    private int queueSize = 16;         // Sheet sides between stages.
+
+    // Memory estimate, fitted to the minimum heap needed by sample jobs.
+    private static final long JOB_BYTES = 8L << 20;
+    private static final long SOURCE_PAGE_BYTES = 8L << 10;
+    private static final long OUTPUT_PAGE_BYTES = 7L << 10;
+    private static final double STREAM_EXPANSION = 2.5;
+    private static final String STREAM = "-";   // Output path of a stream.
+    private List<StageMetrics> metrics = new ArrayList<>();
+    private final List<Target> targets = new ArrayList<>();
+    private AdmissionController admission; // Shared memory budget, if any.
+
+    private final PageSequence sources; // The source PDF pages.
+    private final String outputPDF;     // The generated PDF filepath.
+    private final OutputStream output;  // Destination, if not a file.
+    private int maxPage = 0;
+
+    private PDDocument outputDoc;       // The generated PDF document.
+    private TransformTable transforms;  // Slot matrices for this job.
+    private int[][] imposition;         // Slot page offsets for a signature.
+    private ImageOptimizer optimizer;   // Image downsampling, if required.
+    private StreamCompressor compressor; // Stream compression, if required.
+    private PageReport pageReport;      // Per page costs, if required.
+    private boolean parted;             // Signatures saved as part files?
+    private Journal journal;            // Completed parts, if checkpointed.
+    private int signatures;             // Signatures read so far.
+    private final AtomicLong written = new AtomicLong(); // Bytes saved.
+    private final Set<String> created = ConcurrentHashMap.newKeySet(); // Files saved.
+
+
+    /**
+     * A further booklet to generate from the same source pages.
+     */
+    private static class Target {
+        final String path;
+        final PDRectangle size;
+        final int sheets;
+
+        Target(String path, PDRectangle size, int sheets) {
+            this.path = path;
+            this.size = size;
+            this.sheets = sheets;
+        }
+    }
+
+
+    /**
+     * Find the number of pages in the source PDF document. The SourceCache 
+     * is used so that a recently used document is not parsed again.
+     *
+     * @param inPDF file path for source PDF.
+     */
+    static public int getPDFPageCount(String inPDF) {
+        int maxPage = 0;
+
+        try {
+            maxPage = SourceCache.getCache().get(inPDF).getPageCount();
+        } catch (IOException | RuntimeException e) {
+            System.out.println(e.getMessage());
+        }
+
+        return maxPage;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param inPDF file path for source PDF.
+     * @param outPDF file path for generated PDF.
+     */
+    public PDFBook(String inPDF, String outPDF) {
+        this(single(inPDF), outPDF);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param pages sequence of source PDF pages.
+     * @param outPDF file path for generated PDF.
+     */
+    public PDFBook(PageSequence pages, String outPDF) {
+        this(pages, outPDF, null);
+    }
+
+    /**
+     * Constructor for a booklet written to a stream. The stream is flushed, 
+     * but not closed, once the booklet has been written.
+     *
+     * @param pages sequence of source PDF pages.
+     * @param out stream to write the generated PDF to.
+     */
+    public PDFBook(PageSequence pages, OutputStream out) {
+        this(pages, STREAM, out);
+    }
+
+    /**
+     * Constructor for a booklet written to a channel. The channel is not 
+     * closed once the booklet has been written.
+     *
+     * @param pages sequence of source PDF pages.
+     * @param channel to write the generated PDF to.
+     */
+    public PDFBook(PageSequence pages, WritableByteChannel channel) {
+        this(pages, STREAM, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Constructor for a booklet of a source PDF held in memory.
+     *
+     * @param inPDF the source PDF, used as it is rather than copied.
+     * @param out stream to write the generated PDF to.
+     */
+    public PDFBook(byte[] inPDF, OutputStream out) throws IOException {
+        this(single(inPDF), out);
+    }
+
+    /**
+     * Constructor for a booklet of a source PDF read from a stream.
+     *
+     * @param in stream to read the source PDF from, read to the end.
+     * @param out stream to write the generated PDF to.
+     */
+    public PDFBook(InputStream in, OutputStream out) throws IOException {
+        this(single(in.readAllBytes()), out);
+    }
+
+    private PDFBook(PageSequence pages, String outPDF, OutputStream out) {
+        sources = pages;
+        outputPDF = outPDF;
+        output = out;
+
+        maxPage = sources.getPageCount();
+        lastPage = maxPage;
+    }
+
+    /**
+     * Construct a further booklet of a job, with the same settings as the 
+     * first apart from the sheet size and signature size.
+     *
+     * @param base the first booklet of the job.
+     * @param target the output, sheet size and signature size.
+     */
+    private PDFBook(PDFBook base, Target target) {
+        sources = base.sources;
+        outputPDF = target.path;
+        output = null;
+        maxPage = base.maxPage;
+
+        pageSize = target.size;
+        layout = base.layout;
+        sheetCount = target.sheets;
+        firstPage = base.firstPage;
+        lastPage = base.lastPage;
+        rotate = base.rotate;
+        split = base.split;
+        concatenate = base.concatenate;
+        checkpoint = base.checkpoint;
+        linearize = base.linearize;
+        imageDPI = base.imageDPI;
+        compressLevel = base.compressLevel;
+        report = base.report;
+        sharedObjects = base.sharedObjects;
+        resourceCache = (base.resourceCache == null) ? 
+            null : new BoundedResourceCache(base.resourceCache);
+        threadCount = base.threadCount;
+        token = base.token;
+        timeLimit = base.timeLimit;
+        deadline = base.deadline;
+        queueSize = base.queueSize;
+    }
+
+    private static PageSequence single(String inPDF) {
+        PageSequence pages = new PageSequence();
+        pages.add(inPDF);
+
+        return pages;
+    }
+
+    private static PageSequence single(byte[] inPDF) throws IOException {
+        PageSequence pages = new PageSequence();
+        pages.add(inPDF);
+
+        return pages;
+    }
+
+    private static PDRectangle getPS(String size) {
+        switch (size) {
+            case "A0":      return PDRectangle.A0;
+            case "A1":      return PDRectangle.A1;
+            case "A2":      return PDRectangle.A2;
+            case "A3":      return PDRectangle.A3;
+            case "A4":      return PDRectangle.A4;
+            case "A5":      return PDRectangle.A5;
+            case "A6":      return PDRectangle.A6;
+            case "Legal":   return PDRectangle.LEGAL;
+            case "Letter":  return PDRectangle.LETTER;
+        }
+
+        return PDRectangle.LETTER;
+    }
+
+    private static Layout getLayout(String name) {
+        switch (name) {
+            case "4-up":    return new GridLayout(name, 1, 2);
+            case "8-up":    return new GridLayout(name, 2, 2);
+        }
+
+        return new GridLayout("2-up", 1, 1);
+    }
+
+    /**
+     * System entry point for stand alone, command line version.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> common = new ArrayList<>();
+        String batch = null;
+        int jobs = 0;
+        long heap = 0;
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-batch":
+                    if (++i < args.length)
+                        batch = args[i];
+                    break;
+                case "-jobs":
+                    if (++i < args.length)
+                        jobs = Integer.parseInt(args[i]);
+                    break;
+                case "-heap":
+                    if (++i < args.length)
+                        heap = Long.parseLong(args[i]) << 20;
+                    break;
+
+                default:            common.add(args[i]);    break;
+            }
+        }
+
+        final boolean success = (batch == null) ? 
+            run(common.toArray(new String[0]), null) : 
+            runBatch(batch, common, jobs, heap);
+        System.out.println(ResourceMonitor.getSummary());
+        if (!success) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run the jobs listed in a batch file, one job per line with the same 
+     * arguments as the command line version, following any arguments common 
+     * to all the jobs. Blank lines and lines starting with '#' are ignored. 
+     * Several jobs run at once, each admitted when its estimated memory need 
+     * fits in the heap budget.
+     *
+     * @param path of the batch file.
+     * @param common arguments added in front of the arguments of each job.
+     * @param jobs maximum number of jobs to run at once, 0 for the number of 
+     * processors.
+     * @param heap bytes of memory the jobs may use between them, 0 for 
+     * three quarters of the maximum heap size.
+     * @return true if all the jobs succeeded, false otherwise.
+     */
+    private static boolean runBatch(String path, List<String> common, int jobs, 
+            long heap) throws IOException {
+        List<String[]> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            List<String> args = new ArrayList<>(common);
+            args.addAll(Arrays.asList(line.split("\\s+")));
+            lines.add(args.toArray(new String[0]));
+        }
+
+        final AdmissionController admission = (heap > 0) ? 
+            new AdmissionController(heap) : AdmissionController.forHeap(0.75);
+        ExecutorService pool = Executors.newFixedThreadPool((jobs > 0) ? 
+            jobs : Runtime.getRuntime().availableProcessors());
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (String[] args : lines) {
+            results.add(pool.submit(() -> run(args, admission)));
+        }
+
+        int failed = 0;
+        try {
+            for (Future<Boolean> result : results) {
+                try {
+                    if (!result.get())
+                        failed++;
+                } catch (ExecutionException e) {
+                    System.out.println(e.getCause().getMessage());
+                    failed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+
+            return false;
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.printf("Batch of %d jobs, %d failed\n", lines.size(), failed);
+        System.out.println(admission);
+
+        return failed == 0;
+    }
+
+    /**
+     * Run one job given its command line arguments.
+     *
+     * @param args the arguments of the job.
+     * @param admission controller shared with other jobs, null if none.
+     * @return true if the job succeeded or there was nothing to generate.
+     */
+    private static boolean run(String[] args, AdmissionController admission) 
+            throws IOException {
+        List<String> params = new ArrayList<>();
+        List<String> extra = new ArrayList<>();
+        List<String> also = new ArrayList<>();
+        boolean split = false;
+        boolean concatenate = false;
+        boolean checkpoint = false;
+        boolean linearize = false;
+        boolean report = false;
+        boolean shared = false;
+        BoundedResourceCache cache = null;
+        boolean plan = false;
+        boolean warmup = false;
+        float dpi = 0;
+        int compress = 0;
+        int threads = 0;
+        long timeout = 0;
+        int queue = 0;
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-split":      split = true;           break;
+                case "-concat":     concatenate = true;     break;
+                case "-checkpoint": checkpoint = true;      break;
+                case "-linearize":  linearize = true;       break;
+                case "-report":     report = true;          break;
+                case "-shared":     shared = true;          break;
+                case "-plan":       plan = true;            break;
+                case "-warmup":     warmup = true;          break;
+                case "-fontcache":
+                    if (++i < args.length)
+                        Warmup.setFontCache(args[i]);
+                    break;
+                case "-datadir":
+                    if (++i < args.length)
+                        DataFile.setDirectory(args[i]);
+                    break;
+                case "-threads":
+                    if (++i < args.length)
+                        threads = Integer.parseInt(args[i]);
+                    break;
+                case "-timeout":
+                    if (++i < args.length)
+                        timeout = Long.parseLong(args[i]) * 1000;
+                    break;
+                case "-add":
+                    if (++i < args.length)
+                        extra.add(args[i]);
+                    break;
+                case "-also":
+                    if (++i < args.length)
+                        also.add(args[i]);
+                    break;
+                case "-dpi":
+                    if (++i < args.length)
+                        dpi = Float.parseFloat(args[i]);
+                    break;
+                case "-compress":
+                    if (++i < args.length)
+                        compress = Integer.parseInt(args[i]);
+                    break;
+                case "-cache":
+                    if (++i < args.length)
+                        cache = BoundedResourceCache.parse(args[i]);
+                    break;
+                case "-queue":
+                    if (++i < args.length)
+                        queue = Integer.parseInt(args[i]);
+                    break;
+
+                default:            params.add(args[i]);    break;
+            }
+        }
+
+        if (warmup) {
+            if (params.size() > 1) {
+                Warmup.start();
+            }
+            else {
+                try {
+                    Warmup.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                System.out.println("Warm-up took " + Warmup.getElapsedMillis() + " ms");
+            }
+        }
+
+        if (params.size() > 1) {
+            PageSequence pages = new PageSequence();
+            if (params.get(1).equals(STREAM)) {
+                // A pipeline job does not touch the disk.
+                pages.setCached(false);
+            }
+            pages.addSpec(params.get(0));
+            for (String spec : extra) {
+                pages.addSpec(spec);
+            }
+
+            PDFBook booklet;
+            if (params.get(1).equals(STREAM)) {
+                if (admission != null) {
+                    System.out.println("Batch jobs need a file output");
+                    pages.close();
+
+                    return false;
+                }
+
+                // Keep standard output for the PDF and report on standard error.
+                final PrintStream stdout = System.out;
+                System.setOut(System.err);
+                booklet = new PDFBook(pages, stdout);
+            }
+            else {
+                booklet = new PDFBook(pages, params.get(1));
+            }
+            if (params.size() > 2) {
+                booklet.setPageSize(getPS(params.get(2)));
+            }
+            if (params.size() > 3) {
+                booklet.setLayout(getLayout(params.get(3)));
+            }
+            booklet.setSplitOutput(split);
+            booklet.setConcatenate(concatenate);
+            booklet.setCheckpoint(checkpoint);
+            booklet.setLinearize(linearize);
+            booklet.setImageResolution(dpi);
+            booklet.setCompression(compress);
+            booklet.setReport(report);
+            booklet.setSharedObjects(shared);
+            booklet.setResourceCache(cache);
+            for (String spec : also) {
+                booklet.addTarget(spec);
+            }
+            if (threads > 0) {
+                booklet.setThreadCount(threads);
+            }
+            booklet.setTimeLimit(timeout);
+            if (queue > 0) {
+                booklet.setQueueSize(queue);
+            }
+
+            booklet.setAdmission(admission);
+
+            if (plan) {
+                System.out.println(booklet.plan());
+                pages.close();
+            }
+            else {
+                return booklet.genBooklet();
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Set the size of the page in the output document.
+     * 
+     * @param size of output page defined by getPS() compatible Strings.
+     */
+    public void setPageSize(String size) {
+        pageSize = getPS(size);
+    }
+
+    /**
+     * Set the size of the page in the output document.
+     * 
+     * @param size of standard portrait page defined by PDRectangle.
+     */
+    public void setPageSize(PDRectangle size) {
+        pageSize = size;
+    }
+
+    /**
+     * Set the arrangement of the pages on each sheet of the output document.
+     * 
+     * @param name of the layout defined by getLayout() compatible Strings.
+     */
+    public void setLayout(String name) {
+        layout = getLayout(name);
+    }
+
+    /**
+     * Set the arrangement of the pages on each sheet of the output document.
+     * 
+     * @param arrangement of pages supplied by a Layout implementation.
+     */
+    public void setLayout(Layout arrangement) {
+        layout = arrangement;
+    }
+
+    /**
+     * Set to number of sheets to be used in a section (4 pages to a sheet).
+     * 
+     * @param count of sheets in a section (1 to 6).
+     */
+    public void setSheetCount(int count) {
+        sheetCount = count;
+    }
+
+    /**
+     * Select the first page to be added to the booklet (0 to maxPage).
+     * 
+     * @param page number of first page starting from 0.
+     */
+    public void setFirstPage(int page) {
+        if (page < 0) {
+            firstPage = 0;
+
+            return;
+        }
+
+        if (page > maxPage)
+            page = maxPage;
+
+        if (page > lastPage)
+            lastPage = page;
+
+        firstPage = page;
+    }
+
+    /**
+     * Select the page after the last page to be added to the booklet (0 to 
+     * maxPage).
+     * 
+     * @param page number of last page not to be exceeded.
+     */
+    public void setLastPage(int page) {
+        if (page > maxPage) {
+            lastPage = maxPage;
+
+            return;
+        }
+
+        if (page < 0)
+            page = 0;
+
+        if (page < firstPage)
+            firstPage = page;
+
+        lastPage = page;
+    }
+
+    /**
+     * Get the current first page number (0 to maxPage).
+     * 
+     * @return the current first page number. 
+     */
+    public int getFirstPage() {
+        return firstPage;
+    }
+
+    /**
+     * Get the current last page number (0 to maxPage).
+     * 
+     * @return the current last page number. 
+     */
+    public int getLastPage() {
+        return lastPage;
+    }
+
+    /**
+     * Get the number of pages in the source PDF document.
+     * 
+     * @return number of pages in the PDF.
+     */
+    public int getMaxPage() {
+        return maxPage;
+    }
+
+    /**
+     * Indicate whether each signature should be written to a separate PDF. 
+     * The files are named after the generated PDF with the signature number 
+     * appended, for example booklet-001.pdf, booklet-002.pdf, etc.
+     * 
+     * @param state true to write one PDF per signature, false otherwise.
+     */
+    public void setSplitOutput(boolean state) {
+        split = state;
+    }
+
+    /**
+     * Indicate whether the separate signature PDFs should also be combined 
+     * into the generated PDF. Only used when the output is split.
+     * 
+     * @param state true to combine the signature PDFs, false otherwise.
+     */
+    public void setConcatenate(boolean state) {
+        concatenate = state;
+    }
+
+    /**
+     * Indicate whether the job should be checkpointed. Each signature is 
+     * then written to its own part file and recorded in a journal, as 
+     * booklet-journal.txt for booklet.pdf. If the job is stopped, running it 
+     * again with the same settings skips the signatures already written. 
+     * Unless the output is split, the parts are joined into the generated 
+     * PDF and removed at the end.
+     * 
+     * @param state true to checkpoint the job, false otherwise.
+     */
+    public void setCheckpoint(boolean state) {
+        checkpoint = state;
+    }
+
+    /**
+     * Indicate whether the generated PDFs should be linearized, so that a 
+     * viewer can display the first page before the whole file is received.
+     * 
+     * @param state true to write linearized PDFs, false otherwise.
+     */
+    public void setLinearize(boolean state) {
+        linearize = state;
+    }
+
+    /**
+     * Set the maximum resolution of the images on the generated sheets. 
+     * Images above this resolution, after the page has been scaled to fit 
+     * the sheet, are downsampled and recompressed.
+     * 
+     * @param dpi maximum image resolution in dots per inch, 0 to leave the 
+     * images as they are.
+     */
+    public void setImageResolution(float dpi) {
+        imageDPI = Math.max(0, dpi);
+    }
+
+    /**
+     * Set the Flate compression level used for the streams that PDFBox would 
+     * otherwise write uncompressed, such as the sheet content. The streams 
+     * are compressed on a pool of threads before each PDF is saved.
+     * 
+     * @param level 1 (fastest) to 9 (smallest), 0 to leave the streams 
+     * uncompressed.
+     */
+    public void setCompression(int level) {
+        compressLevel = Math.max(0, Math.min(level, 9));
+    }
+
+    /**
+     * Indicate whether a report of the cost of each source page should be 
+     * written alongside the generated PDF, as booklet-report.csv for 
+     * booklet.pdf.
+     * 
+     * @param state true to write the report, false otherwise.
+     */
+    public void setReport(boolean state) {
+        report = state;
+    }
+
+    /**
+     * Indicate whether the imported pages should refer to the objects of the 
+     * source documents (fonts, images, etc.) instead of copies of them. The 
+     * sources are kept open until the output has been saved.
+     * 
+     * @param state true to share the source objects, false to clone them.
+     */
+    public void setSharedObjects(boolean state) {
+        sharedObjects = state;
+    }
+
+    /**
+     * Set the cache for the fonts, colour spaces, images and forms resolved 
+     * from the source documents, in place of the PDFBox default which keeps 
+     * them for as long as a source is open. The hits and misses are reported 
+     * at the end of the job, after which the cache is cleared. Each further 
+     * booklet uses a cache of its own with the same policy. The resources 
+     * are only resolved through the cache when the objects are shared and 
+     * the images are downsampled, otherwise it is ignored with a warning.
+     * 
+     * @param cache to use, or null for the PDFBox default.
+     */
+    public void setResourceCache(BoundedResourceCache cache) {
+        resourceCache = cache;
+    }
+
+    /**
+     * Set the number of threads used to write the signature PDFs.
+     * 
+     * @param count of writer threads (1 or more).
+     */
+    public void setThreadCount(int count) {
+        threadCount = Math.max(1, count);
+    }
+
+    /**
+     * Set the token used to cancel the job. The same token can be shared by 
+     * several jobs to cancel them all together.
+     * 
+     * @param cancel token checked between sheets and signatures.
+     */
+    public void setCancelToken(CancelToken cancel) {
+        token = cancel;
+    }
+
+    /**
+     * @return the token used to cancel the job.
+     */
+    public CancelToken getCancelToken() {
+        return token;
+    }
+
+    /**
+     * Set the maximum duration of a genBooklet() call, after which the job is 
+     * stopped as if it had been cancelled.
+     * 
+     * @param millis maximum duration in milliseconds, 0 for no limit.
+     */
+    public void setTimeLimit(long millis) {
+        timeLimit = millis;
+    }
+
+    /**
+     * Set the controller that admits this job when its estimated memory need 
+     * fits in a budget shared with other jobs in the JVM. genBooklet() waits 
+     * until the job is admitted. The wait counts towards the time limit, and 
+     * a job that is cancelled or runs out of time while waiting gives up its 
+     * place.
+     * 
+     * @param controller shared by the jobs, null to start immediately.
+     */
+    public void setAdmission(AdmissionController controller) {
+        admission = controller;
+    }
+
+    /**
+     * Estimate the heap needed by genBooklet() with the current settings, 
+     * from the size and page count of the sources and the number of pages 
+     * that differ going by their page digests. The source pages are 
+     * held until the end of the job, but when the output is split or 
+     * checkpointed only a few signatures of output are held at once. Only 
+     * cached details of the sources are used.
+     * 
+     * @return the estimated number of bytes.
+     */
+    public long estimateMemory() {
+        final int pages = lastPage - firstPage;
+        if (pages <= 0)
+            return JOB_BYTES;
+
+        final int distinct = Math.max(1, sources.getDistinctPages(firstPage, lastPage));
+        final long bytes = sources.getSourceBytes(firstPage, lastPage) * distinct / pages;
+        double held = 1.0;
+        if (split || checkpoint) {
+            final int signature = sheetCount * layout.getPagesPerSheet();
+            held = Math.min(1.0, (double)signature * (threadCount + 1) / pages);
+        }
+
+        final double output = held * (pages * OUTPUT_PAGE_BYTES + bytes * STREAM_EXPANSION);
+
+        return JOB_BYTES + pages * SOURCE_PAGE_BYTES + (long)output * (1 + targets.size());
+    }
+
+    /**
+     * Get the file path used for a signature when the output is split.
+     * 
+     * @param index of the signature starting from 0.
+     * @return the file path for the signature PDF.
+     */
+    public String getPartPath(int index) {
+        return String.format("%s-%03d.pdf", getStem(), index + 1);
+    }
+
+    /**
+     * @return the file path for the checkpoint journal.
+     */
+    public String getJournalPath() {
+        return getStem() + "-journal.txt";
+    }
+
+    /**
+     * @return the settings that affect the content of the part files, used 
+     * to check that a journal belongs to the same job.
+     */
+    private List<String> getSettings() {
+        List<String> settings = new ArrayList<>();
+        for (String path : sources.getFiles()) {
+            final File file = new File(path).getAbsoluteFile();
+            settings.add(String.format("source %s %d %d", 
+                    file.getPath(), file.length(), file.lastModified()));
+        }
+        settings.add("range " + sources);
+        settings.add(String.format(Locale.ROOT, "pages %d %d", firstPage, lastPage));
+        settings.add(String.format(Locale.ROOT, "sheet %s %d %.2f %.2f %b", layout.getName(), 
+                sheetCount, pageSize.getWidth(), pageSize.getHeight(), rotate));
+        settings.add(String.format(Locale.ROOT, "output %.1f %d %b", 
+                imageDPI, compressLevel, linearize));
+
+        return settings;
+    }
+
+    /**
+     * @return the file path for the per page cost report.
+     */
+    public String getReportPath() {
+        return getStem() + "-report.csv";
+    }
+
+    /**
+     * @return the generated PDF file path without the ".pdf" extension.
+     */
+    private String getStem() {
+        String stem = outputPDF;
+        if (stem.toLowerCase().endsWith(".pdf"))
+            stem = stem.substring(0, stem.length() - 4);
+
+        return stem;
+    }
+
+    /**
+     * Indicate whether the pages on the reverse side should be rotated in the 
+     * opposite direction to the front side of the sheet.
+     * 
+     * @param flip true if the reverse side should be rotated, false otherwise.
+     */
+    public void setRotate(boolean flip) {
+        rotate = flip;
+    }
+
+
+    /**
+     * Add a further booklet to be generated by genBooklet() from the same 
+     * source pages, with a different sheet size or signature size. The 
+     * source pages are only imported once for all the booklets, unless the 
+     * output is split or checkpointed or the images are downsampled. All 
+     * other settings are those of this booklet when genBooklet() is called.
+     * 
+     * @param outPDF file path for the further booklet.
+     * @param size of output page.
+     * @param count of sheets in each signature.
+     */
+    public void addTarget(String outPDF, PDRectangle size, int count) {
+        targets.add(new Target(outPDF, size, Math.max(1, count)));
+    }
+
+    /**
+     * Add a further booklet from a command line style specification, a 
+     * getPS() compatible sheet size optionally followed by a colon and the 
+     * number of sheets in each signature, for example "A5" or "Letter:2". 
+     * The booklet is written alongside the generated PDF, as booklet-A5.pdf 
+     * or booklet-Letter-2.pdf for booklet.pdf.
+     * 
+     * @param spec sheet size and optional signature size.
+     */
+    public void addTarget(String spec) {
+        final int colon = spec.lastIndexOf(':');
+        String size = spec;
+        int count = sheetCount;
+        String suffix = spec;
+        if (colon > 0) {
+            size = spec.substring(0, colon);
+            count = Integer.parseInt(spec.substring(colon + 1));
+            suffix = size + "-" + count;
+        }
+
+        addTarget(getStem() + "-" + suffix + ".pdf", getPS(size), count);
+    }
+
+    /**
+     * Work out what genBooklet() would produce with the current settings, 
+     * without generating anything. Only cached details of the sources are 
+     * used, so this is quick even for large documents.
+     * 
+     * @return the counts and estimates for the job.
+     */
+    public JobPlan plan() {
+        Signature signature = null;
+        if (lastPage > firstPage) {
+            signature = new Signature(sheetCount, firstPage, lastPage - 1, 
+                    layout.getPagesPerSheet());
+        }
+
+        return new JobPlan(signature, layout.getImposition(sheetCount), 
+                sources.getSourceBytes(firstPage, lastPage), 
+                JobHistory.getHistory().get(getJobKind()));
+    }
+
+    /**
+     * @return the kind of job used to group similar jobs in the JobHistory.
+     */
+    private String getJobKind() {
+        return JobHistory.getKind(layout.getName(), split, imageDPI);
+    }
+
+    /**
+     * Generate a booklet style PDF, and any further booklets added by 
+     * addTarget().
+     * 
+     * @return true if the PDF (or all the signature PDFs) were created, false 
+     * if the job failed or was cancelled.
+     */
+    public boolean genBooklet() {
+        deadline = (timeLimit > 0) ? 
+            System.nanoTime() + timeLimit * 1_000_000L : Long.MAX_VALUE;
+
+        final long need = (admission == null) ? 0 : estimateMemory();
+        if (admission != null) {
+            try {
+                admission.acquire(need, this::check);
+            } catch (JobCancelledException e) {
+                System.out.println(e.getMessage() + " while waiting for memory");
+
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("Job interrupted while waiting for memory");
+
+                return false;
+            }
+        }
+        try {
+            return genBooklets();
+        } finally {
+            if (admission != null)
+                admission.release(need);
+        }
+    }
+
+    /**
+     * Generate the booklet and any further booklets once the job has been 
+     * admitted.
+     */
+    private boolean genBooklets() {
+        if (output != null && (split || checkpoint || report || !targets.isEmpty())) {
+            System.out.println("Split, checkpointed, reported and further " + 
+                    "booklets need a file output");
+
+            return false;
+        }
+        if (checkpoint && sources.hasMemorySources()) {
+            System.out.println("Checkpointed jobs need file sources");
+
+            return false;
+        }
+
+        if (resourceCache != null && (!sharedObjects || imageDPI == 0)) {
+            // Only the image search resolves resources, and only those it 
+            // reaches through the source objects can be cached.
+            System.out.println("Resource cache ignored, it is only used " + 
+                    "when shared images are downsampled");
+            resourceCache = null;
+        }
+
+        List<PDFBook> books = new ArrayList<>();
+        books.add(this);
+        for (Target target : targets) {
+            books.add(new PDFBook(this, target));
+        }
+
+        // Share the imported pages when each booklet is a single document. 
+        // Downsampled images are replaced in place for one sheet size, so 
+        // they cannot be shared.
+        sources.setReuse(books.size() > 1 && !split && !checkpoint && imageDPI == 0);
+        boolean success = true;
+        try {
+            for (PDFBook book : books) {
+                if (!book.genJob()) {
+                    success = false;
+                    break;
+                }
+            }
+        } finally {
+            sources.close();
+            sources.setReuse(false);
+            sources.setCancelCheck(null);
+        }
+
+        return success;
+    }
+
+    /**
+     * Generate one booklet. The sources are left open for the next booklet.
+     * 
+     * @return true if the PDF (or all the signature PDFs) were created, false 
+     * if the job failed or was cancelled.
+     */
+    private boolean genJob() {
+        transforms = new TransformTable(layout, pageSize, rotate);
+        imposition = layout.getImposition(sheetCount);
+        signatures = 0;
+        written.set(0);
+        created.clear();
+        sources.setShared(sharedObjects);
+        sources.setResourceCache(resourceCache);
+        sources.setCancelCheck(this::check);
+        sources.select(firstPage, lastPage);
+        pageReport = report ? new PageReport() : null;
+        parted = split || checkpoint;
+        if (checkpoint) {
+            try {
+                journal = new Journal(getJournalPath(), getSettings(), this::getPartPath);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+
+                return false;
+            }
+            if (journal.getCompleteCount() > 0) {
+                System.out.printf("Resuming with %d signatures already written\n", 
+                        journal.getCompleteCount());
+            }
+        }
+
+        GenerationEvents.JobEvent event = new GenerationEvents.JobEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = genPipeline();
+            if (success && pageReport != null) {
+                writeReport();
+            }
+            if (success && journal == null && output == null) {
+                JobHistory.getHistory().record(getJobKind(), lastPage - firstPage, 
+                        sources.getSourceBytes(firstPage, lastPage), written.get(), 
+                        System.nanoTime() - start);
+            }
+        } finally {
+            pageReport = null;
+            if (resourceCache != null) {
+                resourceCache.clear();
+            }
+            if (journal != null) {
+                if (success)
+                    journal.delete();
+                else
+                    journal.close();
+                journal = null;
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.source = sources.toString();
+                event.output = outputPDF;
+                event.layout = layout.getName();
+                event.firstPage = firstPage + 1;
+                event.lastPage = lastPage;
+                event.signatures = signatures;
+                event.success = success;
+                event.bytes = written.get();
+                event.commit();
+            }
+        }
+
+        return success;
+    }
+
+    /**
+     * Check whether the job should stop.
+     *
+     * @throws JobCancelledException if the token has been cancelled, the 
+     * time limit of the job has passed or the current thread has been 
+     * interrupted.
+     */
+    private void check() throws JobCancelledException {
+        token.check();
+
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0)
+            throw new JobCancelledException("Job exceeded time limit of " + timeLimit + " ms");
+    }
+
+    /**
+     * Close a document, reporting rather than throwing any error.
+     *
+     * @param doc to close, may be null.
+     */
+    private static void close(PDDocument doc) {
+        if (doc == null)
+            return;
+
+        try {
+            doc.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Remove a partially written file.
+     *
+     * @param path of the file to remove.
+     */
+    private static void remove(String path) {
+        try {
+            Files.deleteIfExists(Paths.get(path));
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * A signature on its way through the pipeline, together with the 
+     * document its sheets are added to. When the output is not split all 
+     * sections share the same document.
+     */
+    private static class Section {
+        final int index;                // Signature number starting from 0.
+        final int first;                // First source page number.
+        final int last;                 // Source page number after the last.
+        final PDDocument doc;
+        final String path;              // Signature PDF, null if not split.
+        final GenerationEvents.SignatureEvent event;
+
+        Section(int index, int first, int last, PDDocument doc, String path) {
+            this.index = index;
+            this.first = first;
+            this.last = last;
+            this.doc = doc;
+            this.path = path;
+
+            event = new GenerationEvents.SignatureEvent();
+            event.begin();
+        }
+    }
+
+    /**
+     * One side of a sheet on its way through the pipeline. The read stage 
+     * fills in the forms, the compose stage builds the page and the write 
+     * stage adds the page to the document.
+     */
+    private static class Side {
+        final Section section;
+        final int index;                // Side number within the section.
+        final int side;                 // 0 for the front, 1 for the reverse.
+        final PDFormXObject[] forms;    // Indexed by slot, null if blank.
+        final long importTime;          // Nanoseconds taken to import forms.
+        final boolean end;              // Last side of the section?
+        PDPage page;                    // Null if all slots are blank.
+
+        Side(Section section, int index, PDFormXObject[] forms, 
+                long importTime, boolean end) {
+            this.section = section;
+            this.index = index;
+            this.side = index % 2;
+            this.forms = forms;
+            this.importTime = importTime;
+            this.end = end;
+        }
+    }
+
+    private static final Side FINISHED = new Side(null, 0, null, 0, true);
+
+    /**
+     * Set the number of sheet sides that can wait between pipeline stages. 
+     * This caps the amount of work held in memory when one stage is slower 
+     * than the others.
+     * 
+     * @param count of sheet sides queued between stages (1 or more).
+     */
+    public void setQueueSize(int count) {
+        queueSize = Math.max(1, count);
+    }
+
+    /**
+     * Get the metrics of each pipeline stage of the last genBooklet() call, 
+     * in pipeline order: read, compose and write.
+     * 
+     * @return the list of metrics.
+     */
+    public List<StageMetrics> getStageMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Generate the booklet using a pipeline of three stages, each on its own 
+     * thread and connected by bounded queues. The read stage imports the 
+     * source pages as forms, the compose stage builds the sheet sides and 
+     * the write stage adds them to the output document and writes it.
+     *
+     * When the output is split, the write stage hands each completed 
+     * signature to a pool of writer threads. The pool only queues as many 
+     * signatures as it has threads, beyond that the write stage saves the 
+     * signature itself, which limits the number held in memory.
+     *
+     * @return true if the PDF (or all the signature PDFs) were created, false 
+     * otherwise.
+     */
+    private boolean genPipeline() {
+        BlockingQueue<Side> imported = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<Side> composed = new ArrayBlockingQueue<>(queueSize);
+        ExecutorService stages = Executors.newFixedThreadPool(3);
+        ThreadPoolExecutor writers = null;
+
+        List<String> parts = new ArrayList<>();
+        List<Future<String>> saves = new ArrayList<>();
+        Set<PDDocument> pending = ConcurrentHashMap.newKeySet();
+
+        StageMetrics read = new StageMetrics("read");
+        StageMetrics compose = new StageMetrics("compose");
+        StageMetrics write = new StageMetrics("write");
+        metrics = List.of(read, compose, write);
+        final int duplicates = sources.getDuplicateCount();
+
+        if (imageDPI > 0) {
+            optimizer = new ImageOptimizer(imageDPI, 
+                    Runtime.getRuntime().availableProcessors());
+            optimizer.setResourceCache(resourceCache);
+            optimizer.setShared(sharedObjects);
+        }
+        if (compressLevel > 0) {
+            compressor = new StreamCompressor(compressLevel, 
+                    Runtime.getRuntime().availableProcessors());
+        }
+
+        boolean success = false;
+        try {
+            if (parted) {
+                writers = new ThreadPoolExecutor(
+                        threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(threadCount),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+            }
+            else {
+                outputDoc = ResourceMonitor.newDocument();
+                pending.add(outputDoc);
+            }
+            final ThreadPoolExecutor pool = writers;
+
+            CompletionService<Void> service = new ExecutorCompletionService<>(stages);
+            service.submit(() -> readStage(imported, read, parts, pending));
+            service.submit(() -> composeStage(imported, composed, compose));
+            service.submit(() -> writeStage(composed, write, pool, saves, pending));
+
+            // Stop at the first stage to fail.
+            for (int i = 0; i < 3; ++i) {
+                service.take().get();
+            }
+
+            if (parted) {
+                // Wait for all the signatures to be written, in order.
+                writers.shutdown();
+                for (Future<String> save : saves) {
+                    System.out.println("File created in: " + save.get());
+                }
+            }
+            else {
+                check();
+                write.startWork();
+                if (output == null)
+                    save(outputDoc, outputPDF);
+                else
+                    save(outputDoc, outputPDF, output);
+                write.startWait(0);
+
+                if (output == null)
+                    System.out.println("File created in: " + outputPDF);
+                else
+                    System.out.println("Booklet written to stream");
+            }
+            success = true;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } catch (ExecutionException e) {
+            System.out.println(e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Job interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            // Unblock any stage waiting on a queue and let it finish.
+            stages.shutdownNow();
+            try {
+                stages.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writers != null) {
+                // Drop any queued saves and wait for those in progress.
+                writers.shutdownNow();
+                try {
+                    writers.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (optimizer != null) {
+                optimizer.close();
+            }
+            if (compressor != null) {
+                compressor.close();
+            }
+
+            // Close whatever was not written, even if a stage threw an Error.
+            for (PDDocument doc : pending) {
+                if (!sources.keep(doc))
+                    close(doc);
+            }
+            outputDoc = null;
+        }
+
+        for (StageMetrics stage : metrics) {
+            System.out.println(stage);
+        }
+        if (resourceCache != null) {
+            System.out.println(resourceCache);
+        }
+        if (sources.getDuplicateCount() > duplicates) {
+            System.out.printf("%d repeated pages shared a form\n", 
+                    sources.getDuplicateCount() - duplicates);
+        }
+        if (optimizer != null) {
+            System.out.println(optimizer);
+            optimizer = null;
+        }
+        if (compressor != null) {
+            System.out.println(compressor);
+            compressor = null;
+        }
+
+        if (!success) {
+            // Only remove what this job saved, the output itself is only 
+            // replaced once it has been completely written.
+            for (int i = 0; i < parts.size(); ++i) {
+                // Keep the checkpointed parts for a restarted job.
+                if (journal != null && journal.isComplete(i))
+                    continue;
+                if (created.contains(parts.get(i)))
+                    remove(parts.get(i));
+            }
+
+            return false;
+        }
+
+        if (parted && (concatenate || !split)) {
+            if (!concatenate(parts, outputPDF))
+                return false;
+
+            if (!split) {
+                // The parts were only checkpoints.
+                for (String part : parts) {
+                    remove(part);
+                }
+            }
+
+            if (linearize)
+                return linearize(outputPDF);
+        }
+
+        return true;
+    }
+
+    /**
+     * Read stage: resolve the source pages for each side of each sheet and 
+     * import them into the output document as form XObjects.
+     *
+     * @param out queue of sides for the compose stage.
+     * @param stats metrics for the stage.
+     * @param parts list of signature PDF file paths, filled in when split.
+     * @param pending documents that have not yet been written and closed.
+     */
+    private Void readStage(BlockingQueue<Side> out, StageMetrics stats, 
+            List<String> parts, Set<PDDocument> pending) 
+            throws IOException, InterruptedException {
+
+        final int MAX = lastPage;
+        final int SIG = layout.getPagesPerSheet() * sheetCount;
+        int last = firstPage;
+        stats.startWork();
+        for (int first = last; first < MAX; first = last) {
+            check();
+            sources.release(first);
+
+            last += SIG;
+            if (last > MAX) {
+                last = MAX;
+            }
+
+            if (journal != null && journal.isComplete(parts.size())) {
+                parts.add(getPartPath(parts.size()));
+                signatures++;
+                System.out.printf("Pages %d to %d already written\n", first + 1, last);
+                continue;
+            }
+
+            Section section;
+            if (parted) {
+                PDDocument doc = ResourceMonitor.newDocument();
+                pending.add(doc);
+                final String path = getPartPath(parts.size());
+                parts.add(path);
+                section = new Section(signatures, first, last, doc, path);
+            }
+            else {
+                section = new Section(signatures, first, last, outputDoc, null);
+            }
+            signatures++;
+
+            for (int side = 0; side < imposition.length; ++side) {
+                check();
+
+                final long start = System.nanoTime();
+                final PDFormXObject[] forms;
+                if (sharedObjects) {
+                    // A writer thread may be saving the same source objects.
+                    synchronized (sources) {
+                        forms = importPages(section, side % 2, imposition[side]);
+                    }
+                }
+                else {
+                    forms = importPages(section, side % 2, imposition[side]);
+                }
+                Side item = new Side(section, side, forms, 
+                        System.nanoTime() - start, side == imposition.length - 1);
+
+                stats.startWait(1);
+                out.put(item);
+                stats.startWork();
+            }
+
+            if (parted) {
+                sources.forget(section.doc);
+                if (pageReport != null) {
+                    pageReport.forget(section.doc);
+                }
+            }
+            if (resourceCache != null) {
+                resourceCache.endSignature();
+            }
+        }
+        stats.startWait(0);
+        out.put(FINISHED);
+
+        return null;
+    }
+
+    /**
+     * Import the source pages for one side of a sheet.
+     *
+     * @param section the side belongs to.
+     * @param side of the sheet, 0 for the front and 1 for the reverse.
+     * @param slots page offsets from the first page of the section.
+     * @return the imported forms indexed by slot, null for blank slots.
+     */
+    private PDFormXObject[] importPages(Section section, int side, int[] slots) 
+            throws IOException {
+
+        PDFormXObject[] forms = new PDFormXObject[slots.length];
+        for (int slot = 0; slot < slots.length; ++slot) {
+            final int pn = section.first + slots[slot];
+            if (pn >= section.last)
+                continue;
+
+            // Source PDF pages has to be imported as form XObjects to be able
+            // to insert them at a specific point in the output page.
+            final long start = System.nanoTime();
+            synchronized (section.doc) {
+                forms[slot] = sources.importPageAsForm(section.doc, pn);
+            }
+            if (pageReport != null) {
+                pageReport.add(sources, pn, section.doc, forms[slot], 
+                        System.nanoTime() - start);
+            }
+
+            if (optimizer != null) {
+                final PDFormXObject form = forms[slot];
+                optimizer.optimize(section.doc, form, 
+                        transforms.get(form, side, slot));
+            }
+        }
+
+        return forms;
+    }
+
+    /**
+     * Compose stage: build a new 'pageSize' page for each side of a sheet. 
+     * Each form is placed in its slot using the matrix from the transform 
+     * table. No page is built if all the slots on the side are blank.
+     *
+     * @param in queue of sides from the read stage.
+     * @param out queue of sides for the write stage.
+     * @param stats metrics for the stage.
+     */
+    private Void composeStage(BlockingQueue<Side> in, BlockingQueue<Side> out, 
+            StageMetrics stats) throws IOException, InterruptedException {
+
+        SheetComposer composer = new SheetComposer(pageSize);
+        for (Side item = in.take(); item != FINISHED; item = in.take()) {
+            stats.startWork();
+            check();
+
+            GenerationEvents.SheetEvent event = new GenerationEvents.SheetEvent();
+            event.begin();
+            boolean blank = true;
+            composer.start();
+            for (int slot = 0; slot < item.forms.length; ++slot) {
+                final PDFormXObject form = item.forms[slot];
+                if (form == null)
+                    continue;
+
+                composer.draw(form, transforms.get(form, item.side, slot));
+                blank = false;
+            }
+
+            if (!blank) {
+                item.page = composer.finish(item.section.doc);
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                commitSheetEvent(event, item, blank ? 0 : composer.getLength());
+            }
+
+            stats.startWait(1);
+            out.put(item);
+        }
+        out.put(FINISHED);
+
+        return null;
+    }
+
+    /**
+     * Write stage: add each page to its document and, when the output is 
+     * split, hand each completed signature to the writer pool.
+     *
+     * @param in queue of sides from the compose stage.
+     * @param stats metrics for the stage.
+     * @param writers pool used to save the signature PDFs, null if not split.
+     * @param saves list of signature saves, filled in when split.
+     * @param pending documents that have not yet been written and closed.
+     */
+    private Void writeStage(BlockingQueue<Side> in, StageMetrics stats, 
+            ThreadPoolExecutor writers, List<Future<String>> saves, 
+            Set<PDDocument> pending) throws IOException, InterruptedException {
+
+        for (Side item = in.take(); item != FINISHED; item = in.take()) {
+            stats.startWork();
+            check();
+
+            final Section section = item.section;
+            if (item.page != null) {
+                synchronized (section.doc) {
+                    section.doc.addPage(item.page);
+                }
+            }
+
+            if (item.end) {
+                final GenerationEvents.SignatureEvent event = section.event;
+                event.end();
+                if (event.shouldCommit()) {
+                    event.source = sources.getPath(section.first);
+                    event.signature = section.index + 1;
+                    event.firstPage = section.first + 1;
+                    event.lastPage = section.last;
+                    event.sides = imposition.length;
+                    event.commit();
+                }
+
+                if (writers != null) {
+                    saves.add(writers.submit(() -> {
+                        try {
+                            check();
+                            saveSection(section);
+                            if (journal != null) {
+                                journal.complete(section.index, section.path);
+                            }
+                        } finally {
+                            section.doc.close();
+                            pending.remove(section.doc);
+                        }
+
+                        return section.path;
+                    }));
+                }
+
+                System.out.printf("Pages %d to %d\n", section.first + 1, section.last);
+            }
+            stats.startWait(1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Save a split signature. Signatures that share source objects are saved 
+     * one at a time, as PDFBox does not support reading the same source 
+     * stream from several threads.
+     *
+     * @param section the signature to save.
+     */
+    private void saveSection(Section section) throws IOException {
+        if (!sharedObjects) {
+            save(section.doc, section.path);
+
+            return;
+        }
+
+        synchronized (sources) {
+            save(section.doc, section.path);
+        }
+    }
+
+    /**
+     * Write the per page cost report alongside the generated PDF.
+     */
+    private void writeReport() {
+        final String path = getReportPath();
+        try {
+            pageReport.write(path, written.get());
+            System.out.println("Report created in: " + path);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Fill in and commit the flight recorder event for a sheet side.
+     *
+     * @param event for the sheet side.
+     * @param item the sheet side.
+     * @param bytes length of the page content.
+     */
+    private void commitSheetEvent(GenerationEvents.SheetEvent event, Side item, 
+            int bytes) {
+        final Section section = item.section;
+        final int[] slots = imposition[item.index];
+
+        StringBuilder pages = new StringBuilder();
+        for (int slot = 0; slot < slots.length; ++slot) {
+            final int pn = section.first + slots[slot];
+            if (slot > 0)
+                pages.append(',');
+            pages.append(pn < section.last ? pn + 1 : 0);
+        }
+
+        event.source = sources.getPath(section.first);
+        event.signature = section.index + 1;
+        event.side = item.index;
+        event.pages = pages.toString();
+        event.importTime = item.importTime;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    /**
+     * Save a generated document, linearized if requested. The temporary file 
+     * is synced to disk before it is moved into place, so a part file that 
+     * the journal records survives a crash.
+     * 
+     * @param doc the document to save.
+     * @param path file path for the PDF.
+     */
+    private void save(PDDocument doc, String path) throws IOException {
+        final Path temp = Paths.get(path + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                save(doc, path, out);
+                out.getFD().sync();
+            }
+            DataFile.replace(temp, Paths.get(path));
+            created.add(path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Save a generated document to a stream, linearized if requested. The 
+     * stream is flushed but not closed.
+     * 
+     * @param doc the document to save.
+     * @param path name of the PDF for messages.
+     * @param stream to write the PDF to.
+     */
+    private void save(PDDocument doc, String path, OutputStream stream) 
+            throws IOException {
+        if (optimizer != null) {
+            optimizer.await(doc);
+        }
+        if (compressor != null) {
+            compressor.compress(doc);
+        }
+
+        GenerationEvents.SaveEvent event = new GenerationEvents.SaveEvent();
+        event.begin();
+        CountingOutputStream counter = new CountingOutputStream(stream);
+        OutputStream out = new BufferedOutputStream(counter);
+        if (linearize) {
+            final long prefix = Linearizer.save(doc, out);
+            System.out.printf("First page of %s in %d bytes\n", path, prefix);
+        }
+        else {
+            doc.save(out);
+        }
+        out.flush();
+        event.end();
+
+        final long bytes = counter.getCount();
+        written.addAndGet(bytes);
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.pages = doc.getNumberOfPages();
+            event.linearized = linearize;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Count the bytes written to a stream, and keep the stream open when 
+     * PDFBox closes the output once it has saved a document.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() { return count; }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Rewrite an existing PDF as a linearized PDF. The file is only replaced 
+     * once the linearized copy has been written.
+     * 
+     * @param path file path of the PDF to linearize.
+     * @return true if the PDF was linearized, false otherwise.
+     */
+    public static boolean linearize(String path) {
+        final String temp = path + ".tmp";
+        try (PDDocument doc = ResourceMonitor.load(new File(path), 
+                MemoryUsageSetting.setupTempFileOnly())) {
+            final long prefix = Linearizer.save(doc, temp);
+            DataFile.replace(Paths.get(temp), Paths.get(path));
+            System.out.printf("First page of %s in %d bytes\n", path, prefix);
+
+            return true;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            remove(temp);
+        }
+
+        return false;
+    }
+
+    /**
+     * Combine previously generated PDFs into a single PDF. The pages are 
+     * copied as they are, so the booklet is not generated again. An existing 
+     * file is only replaced once the combined PDF has been written.
+     * 
+     * @param parts file paths of the PDFs to combine, in order.
+     * @param outPDF file path for the combined PDF.
+     * @return true if the combined PDF was written, false otherwise.
+     */
+    public static boolean concatenate(List<String> parts, String outPDF) {
+        final String temp = outPDF + ".tmp";
+        PDFMergerUtility merger = new PDFMergerUtility();
+        merger.setDestinationFileName(temp);
+
+        try {
+            for (String part : parts) {
+                merger.addSource(part);
+            }
+
+            merger.mergeDocuments(MemoryUsageSetting.setupTempFileOnly());
+            DataFile.replace(Paths.get(temp), Paths.get(outPDF));
+            System.out.println("File created in: " + outPDF);
+
+            return true;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            remove(temp);
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,259 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PageDigest is a class that calculates a digest identifying a source page 
+ * exactly, so that repeated pages, such as blank separators and boilerplate, 
+ * can be imported once and share one form XObject.
+ *
+ * The digest covers the raw bytes of the content streams, the structure of 
+ * the resources down to the streams they use, such as font files, images and 
+ * forms, which are identified by their object numbers, the page geometry and 
+ * the page entries that are copied to a form. Two pages with the same digest 
+ * draw the same thing with the same streams, even if each page has its own 
+ * copy of the resource dictionaries, so a digest is only meaningful within 
+ * one source document. It reads the content streams, but it never decodes 
+ * them. The SourceCache keeps the digest of each page it has scanned, so 
+ * that the number of distinct pages is known without opening the source.
+ *
+ * A page whose resources cannot be identified exactly, because they are 
+ * nested too deeply, refer back to themselves or hold a stream without an 
+ * object number, has no digest and is always imported on its own.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+public class PageDigest {
+    private static final int MAX_DEPTH = 16;
+
+    // Page entries that change the form built from a page.
+    private static final COSName[] PAGE_ENTRIES = { 
+            COSName.GROUP, COSName.LAST_MODIFIED, COSName.METADATA };
+
+    private final DataOutputStream out;
+
+
+    private PageDigest(MessageDigest digest) {
+        out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+    }
+
+    /**
+     * Calculate the digest of a source page.
+     *
+     * @param page of the source document.
+     * @return the digest, or null if the page cannot be identified exactly.
+     */
+    public static ByteBuffer of(PDPage page) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+
+        PageDigest writer = new PageDigest(digest);
+        if (!writer.add(page))
+            return null;
+
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private boolean add(PDPage page) throws IOException {
+        final COSDictionary dict = page.getCOSObject();
+
+        addContents(dict.getDictionaryObject(COSName.CONTENTS));
+        if (!add(inherited(dict, COSName.RESOURCES), 0))
+            return false;
+        for (COSName key : PAGE_ENTRIES) {
+            if (!add(dict.getItem(key), 0))
+                return false;
+        }
+
+        add(page.getMediaBox());
+        add(page.getCropBox());
+        out.writeInt(page.getRotation());
+
+        return true;
+    }
+
+    /**
+     * Find a page entry, which may be inherited from the page tree.
+     */
+    private static COSBase inherited(COSDictionary dict, COSName key) {
+        for (int depth = 0; dict != null && depth < MAX_DEPTH; ++depth) {
+            final COSBase value = dict.getItem(key);
+            if (value != null)
+                return value;
+
+            dict = dict.getCOSDictionary(COSName.PARENT);
+        }
+
+        return null;
+    }
+
+    private void add(PDRectangle box) throws IOException {
+        out.writeFloat(box.getLowerLeftX());
+        out.writeFloat(box.getLowerLeftY());
+        out.writeFloat(box.getUpperRightX());
+        out.writeFloat(box.getUpperRightY());
+    }
+
+    /**
+     * Add the raw content of a page, which is a stream or an array of them. 
+     * Pages with separate but identical content streams give the same digest.
+     */
+    private void addContents(COSBase contents) throws IOException {
+        if (contents instanceof COSStream) {
+            addStream((COSStream)contents);
+        }
+        else if (contents instanceof COSArray) {
+            final COSArray array = (COSArray)contents;
+            out.writeByte('A');
+            out.writeInt(array.size());
+            for (int i = 0; i < array.size(); ++i) {
+                final COSBase item = array.getObject(i);
+                if (item instanceof COSStream)
+                    addStream((COSStream)item);
+                else
+                    out.writeByte('Z');
+            }
+        }
+        else {
+            out.writeByte('Z');
+        }
+    }
+
+    private void addStream(COSStream stream) throws IOException {
+        out.writeByte('C');
+        add(stream.getItem(COSName.FILTER), 0);
+        add(stream.getItem(COSName.DECODE_PARMS), 0);
+        out.writeLong(stream.getLength());
+        try (InputStream in = stream.createRawInputStream()) {
+            in.transferTo(out);
+        }
+    }
+
+    /**
+     * Add a value, identifying streams by their object numbers.
+     *
+     * @return false if the value cannot be identified exactly.
+     */
+    private boolean add(COSBase value, int depth) throws IOException {
+        if (depth > MAX_DEPTH)
+            return false;
+
+        if (value == null || value instanceof COSNull) {
+            out.writeByte('Z');
+        }
+        else if (value instanceof COSObject) {
+            final COSObject ref = (COSObject)value;
+            if (!(ref.getObject() instanceof COSStream))
+                return add(ref.getObject(), depth + 1);
+            if (ref.getObjectNumber() <= 0)
+                return false;
+            out.writeByte('R');
+            out.writeLong(ref.getObjectNumber());
+            out.writeInt(ref.getGenerationNumber());
+        }
+        else if (value instanceof COSStream) {
+            // A stream is always indirect, so this one cannot be identified.
+            return false;
+        }
+        else if (value instanceof COSDictionary) {
+            final COSDictionary dict = (COSDictionary)value;
+            out.writeByte('D');
+            out.writeInt(dict.size());
+            for (Map.Entry<COSName, COSBase> item : dict.entrySet()) {
+                if (COSName.PARENT.equals(item.getKey()))
+                    continue;
+                add(item.getKey());
+                if (!add(item.getValue(), depth + 1))
+                    return false;
+            }
+        }
+        else if (value instanceof COSArray) {
+            final COSArray array = (COSArray)value;
+            out.writeByte('A');
+            out.writeInt(array.size());
+            for (COSBase item : array) {
+                if (!add(item, depth + 1))
+                    return false;
+            }
+        }
+        else if (value instanceof COSName) {
+            add((COSName)value);
+        }
+        else if (value instanceof COSString) {
+            final byte[] bytes = ((COSString)value).getBytes();
+            out.writeByte('S');
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if (value instanceof COSInteger) {
+            out.writeByte('I');
+            out.writeLong(((COSInteger)value).longValue());
+        }
+        else if (value instanceof COSFloat) {
+            out.writeByte('F');
+            out.writeFloat(((COSFloat)value).floatValue());
+        }
+        else if (value instanceof COSBoolean) {
+            out.writeByte('B');
+            out.writeBoolean(((COSBoolean)value).getValue());
+        }
+        else {
+            return false;
+        }
+
+        return true;
+    }
+
+    private void add(COSName name) throws IOException {
+        final byte[] bytes = name.getName().getBytes(StandardCharsets.UTF_8);
+        out.writeByte('N');
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+}
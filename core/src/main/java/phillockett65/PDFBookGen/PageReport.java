@@ -0,0 +1,201 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PageReport is a class that records what each source page costs to impose, 
+ * so that pathological pages, such as huge embedded images or deeply nested 
+ * vector graphics, can be spotted before a print run.
+ *
+ * For each page the time taken to import it is recorded, along with the 
+ * objects and stream bytes that were copied into the output for it and the 
+ * resources it uses. Objects shared with earlier pages, such as fonts, are 
+ * only counted against the first page that used them. The stream bytes are 
+ * taken before any image downsampling, and their share of the output is 
+ * calculated once the output size is known.
+ *
+ * The report is written as CSV, one row per source page in page order.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+
+public class PageReport {
+
+    /**
+     * The cost of one source page.
+     */
+    private static class Row {
+        final int page;             // Page number in the sequence.
+        final String source;
+        final int sourcePage;       // Page number in the source document.
+        final long importTime;      // Nanoseconds.
+        final int objects;
+        final long bytes;
+        final int fonts;
+        final int images;
+        final int forms;
+
+        Row(int page, String source, int sourcePage, long importTime, 
+                int objects, long bytes, int fonts, int images, int forms) {
+            this.page = page;
+            this.source = source;
+            this.sourcePage = sourcePage;
+            this.importTime = importTime;
+            this.objects = objects;
+            this.bytes = bytes;
+            this.fonts = fonts;
+            this.images = images;
+            this.forms = forms;
+        }
+    }
+
+    private final List<Row> rows = new ArrayList<>();
+
+    // Objects already counted for each target document.
+    private final Map<PDDocument, Set<COSBase>> seen = new IdentityHashMap<>();
+
+
+    /**
+     * Record the cost of importing a source page.
+     *
+     * @param sources the page sequence the page comes from.
+     * @param page number of page in the sequence starting from 0.
+     * @param target document the page was imported into.
+     * @param form the imported page.
+     * @param importTime nanoseconds taken to import the page.
+     */
+    public void add(PageSequence sources, int page, PDDocument target, 
+            PDFormXObject form, long importTime) {
+        Set<COSBase> known = seen.computeIfAbsent(target, 
+                k -> Collections.newSetFromMap(new IdentityHashMap<>()));
+
+        int objects = 0;
+        long bytes = 0;
+        Deque<COSBase> pending = new ArrayDeque<>();
+        pending.push(form.getCOSObject());
+        while (!pending.isEmpty()) {
+            COSBase value = pending.pop();
+            if (value instanceof COSObject)
+                value = ((COSObject)value).getObject();
+
+            if (value instanceof COSDictionary) {
+                final boolean direct = value.isDirect() && !(value instanceof COSStream);
+                if (!direct) {
+                    if (!known.add(value))
+                        continue;
+                    objects++;
+                }
+                if (value instanceof COSStream)
+                    bytes += ((COSStream)value).getLength();
+
+                for (Map.Entry<COSName, COSBase> item : ((COSDictionary)value).entrySet()) {
+                    if (!COSName.PARENT.equals(item.getKey()))
+                        pending.push(item.getValue());
+                }
+            }
+            else if (value instanceof COSArray) {
+                for (COSBase item : (COSArray)value) {
+                    pending.push(item);
+                }
+            }
+        }
+
+        int fonts = 0, images = 0, forms = 0;
+        PDResources resources = form.getResources();
+        if (resources != null) {
+            for (Iterator<COSName> it = resources.getFontNames().iterator(); it.hasNext(); it.next())
+                fonts++;
+            for (COSName name : resources.getXObjectNames()) {
+                if (resources.isImageXObject(name))
+                    images++;
+                else
+                    forms++;
+            }
+        }
+
+        rows.add(new Row(page + 1, sources.getPath(page), sources.getSourcePage(page) + 1, 
+                importTime, objects, bytes, fonts, images, forms));
+    }
+
+    /**
+     * Forget the objects counted for a target document, for when no more 
+     * pages will be imported into it.
+     *
+     * @param target document pages were imported into.
+     */
+    public void forget(PDDocument target) {
+        seen.remove(target);
+    }
+
+    private static String quote(String text) {
+        if (text == null)
+            return "";
+
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Write the report as CSV.
+     *
+     * @param path file path for the report.
+     * @param outputBytes total size of the generated PDFs, 0 if unknown.
+     */
+    public void write(String path, long outputBytes) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            out.write("page,source,source_page,import_ms,objects,stream_bytes,fonts,images,forms,output_share_percent");
+            out.newLine();
+            rows.sort(Comparator.comparingInt(row -> row.page));
+            for (Row row : rows) {
+                final double share = (outputBytes == 0) ? 0.0 : 100.0 * row.bytes / outputBytes;
+                out.write(String.format(Locale.ROOT, "%d,%s,%d,%.3f,%d,%d,%d,%d,%d,%.2f", 
+                        row.page, quote(row.source), row.sourcePage, 
+                        row.importTime / 1_000_000.0, row.objects, row.bytes, 
+                        row.fonts, row.images, row.forms, share));
+                out.newLine();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,889 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PageSequence is a class that presents an ordered list of source PDFs, or 
+ * page ranges of them, as a single sequence of pages numbered from 0.
+ *
+ * Each source document is only opened when one of its pages is first 
+ * imported and is closed again once the generation has moved past its last 
+ * page. As the pages are imported in signature order, at most the sources 
+ * overlapping one signature are open at the same time, so the memory used 
+ * is close to that of the largest source rather than the sum of them all.
+ *
+ * A source is opened with a RangeParser, so only the pages of the source 
+ * that are selected, and the resources they use, are loaded. The cost of 
+ * imposing a few pages of a huge document then depends on the pages rather 
+ * than the document. If the page tree cannot be followed that way, the 
+ * whole document is loaded instead.
+ *
+ * The pages are imported with a LayerUtility for each pair of source and 
+ * target documents, so the objects shared by the pages of a source are only 
+ * copied once into each target, and the clone cache is dropped along with 
+ * the source.
+ *
+ * A source can also be a PDF held in memory, such as an upload or standard 
+ * input. The data is parsed where it is, without being copied or written 
+ * to a temporary file. It is parsed when it is added, to find its page 
+ * count, and the document is kept open for importing its pages rather than 
+ * parsed again.
+ *
+ * The page counts of the source files come from the SourceCache, unless 
+ * setCached() has been used to keep them in memory for jobs that must not 
+ * write to disk.
+ *
+ * In shared object mode the pages are not cloned at all. Each form XObject 
+ * gets its own copy of the page content, copied without decoding it, and 
+ * refers directly to the resources of the source document, which PDFBox 
+ * then writes straight from the source when the output is saved. The 
+ * sources must therefore stay open until the output has been saved, so 
+ * release() leaves them open in this mode.
+ *
+ * When several booklets are generated from the same pages, the imported forms 
+ * can be reused: each page is imported once, into the first document that 
+ * needs it, and the same form is returned for the other documents. The 
+ * documents holding the forms are then kept open until close() is called.
+ *
+ * Pages that repeat within a source, such as blank separators and notes 
+ * pages, are imported once into each target document and share one form 
+ * XObject, going by their PageDigest. The repeats are counted.
+ *
+ * A PageSequence is used by one thread at a time.
+ */
+package phillockett65.PDFBookGen;
+
+import java.awt.geom.AffineTransform;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.multipdf.LayerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.ResourceCache;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentGroup;
+import org.apache.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentProperties;
+
+public class PageSequence {
+
+    /**
+     * A range of pages from one source PDF.
+     */
+    private static class Source {
+        final String path;
+        final byte[] data;          // Null if read from the file at path.
+        SourceCache.DocInfo info;   // Null if read from the file at path.
+        final int first;            // First page in the source document.
+        final int count;            // Number of pages used.
+        final int start;            // Position of the first page in sequence.
+
+        PDDocument doc;             // Open while pages are being imported.
+        RangeParser parser;         // Null if all of doc was loaded.
+        final Map<PDDocument, LayerUtility> layers = new IdentityHashMap<>();
+        final Map<PDDocument, Map<ByteBuffer, PDFormXObject>> copies = new IdentityHashMap<>();
+
+        Source(String path, byte[] data, SourceCache.DocInfo info, 
+                int first, int count, int start) {
+            this.path = path;
+            this.data = data;
+            this.info = info;
+            this.first = first;
+            this.count = count;
+            this.start = start;
+        }
+
+        int end() { return start + count; }
+
+        PDPage getPage(int index) throws IOException {
+            if (parser != null)
+                return parser.getPage(index);
+
+            return doc.getPage(index);
+        }
+    }
+
+    // Page entries copied to the form, as LayerUtility does.
+    private static final COSName[] PAGE_TO_FORM = { 
+            COSName.GROUP, COSName.LAST_MODIFIED, COSName.METADATA };
+
+    private final List<Source> sources = new ArrayList<>();
+    private int pageCount = 0;
+    private boolean shared = false;
+    private int selectFirst = 0;        // Selected pages of the sequence.
+    private int selectLast = Integer.MAX_VALUE;
+    private Map<Integer, PDFormXObject> forms;  // Imported pages, if reused.
+    private final List<PDDocument> owners = new ArrayList<>();
+    private byte[] stdin;               // Standard input, once read.
+    private int duplicates = 0;         // Repeated pages sharing a form.
+    private ResourceCache cache;        // For the sources, if not PDFBox's.
+    private SourceCache details = SourceCache.getCache();   // Of the files.
+    private CancelToken.Check check;    // Stops the loads, null if none.
+
+    private static final String STDIN = "-";
+    private static final String MEMORY = "(memory)";
+
+
+    /**
+     * Add all the pages of a source PDF to the end of the sequence.
+     *
+     * @param path file path for the source PDF.
+     */
+    public void add(String path) {
+        add(path, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Add a range of pages of a source PDF to the end of the sequence. The 
+     * range is limited to the pages in the document.
+     *
+     * @param path file path for the source PDF.
+     * @param first page number of first page starting from 0.
+     * @param last page number after the last page to add.
+     */
+    public void add(String path, int first, int last) {
+        int max = 0;
+        try {
+            max = details.get(path).getPageCount();
+        } catch (IOException | RuntimeException e) {
+            System.out.println(e.getMessage());
+        }
+        first = Math.max(0, Math.min(first, max));
+        last = Math.max(first, Math.min(last, max));
+
+        sources.add(new Source(path, null, null, first, last - first, pageCount));
+        pageCount += last - first;
+    }
+
+    /**
+     * Add all the pages of a source PDF to the end of the sequence.
+     *
+     * @param path of the source PDF.
+     */
+    public void add(Path path) {
+        add(path.toString());
+    }
+
+    /**
+     * Add all the pages of a source PDF held in memory to the end of the 
+     * sequence. The array is used as it is, not copied, so it must not be 
+     * changed until the booklet has been generated.
+     *
+     * @param data the source PDF.
+     */
+    public void add(byte[] data) throws IOException {
+        add(data, MEMORY, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Add a range of pages of a source PDF held in memory to the end of the 
+     * sequence. The range is limited to the pages in the document. The 
+     * document is loaded now and kept open until its pages have been 
+     * imported or close() is called.
+     *
+     * @param data the source PDF, used as it is rather than copied.
+     * @param name for the source in messages and reports.
+     * @param first page number of first page starting from 0.
+     * @param last page number after the last page to add.
+     */
+    public void add(byte[] data, String name, int first, int last) 
+            throws IOException {
+        Source source = new Source(name, data, null, first, 0, pageCount);
+        load(source, first, last);
+        final int max = (source.parser != null) ? 
+            source.parser.getPageCount() : source.doc.getNumberOfPages();
+        first = Math.max(0, Math.min(first, max));
+        last = Math.max(first, Math.min(last, max));
+
+        Source added = new Source(name, data, null, first, last - first, pageCount);
+        added.info = new SourceCache.DocInfo(data.length, 0, max, new HashMap<>());
+        added.doc = source.doc;
+        added.parser = source.parser;
+        sources.add(added);
+        pageCount += last - first;
+    }
+
+    /**
+     * Add all the pages of a source PDF read from a stream to the end of the 
+     * sequence. The stream is read to the end, but not closed.
+     *
+     * @param input the source PDF.
+     */
+    public void add(InputStream input) throws IOException {
+        add(input.readAllBytes());
+    }
+
+    /**
+     * Add all the pages of a source PDF read from a channel to the end of the 
+     * sequence. The channel is read to the end, but not closed.
+     *
+     * @param channel the source PDF.
+     */
+    public void add(ReadableByteChannel channel) throws IOException {
+        add(Channels.newInputStream(channel).readAllBytes());
+    }
+
+    /**
+     * @return true if any of the sources is held in memory rather than read 
+     * from a file.
+     */
+    public boolean hasMemorySources() {
+        for (Source source : sources) {
+            if (source.data != null)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Add a source from a command line style specification, either a file 
+     * path or a file path followed by a colon and a page range, for example 
+     * "cover.pdf" or "body.pdf:3-50". The range is inclusive and numbered 
+     * from 1, as shown by PDF viewers. A path of "-" is standard input, 
+     * which is read once however many times it is used.
+     *
+     * @param spec file path and optional page range.
+     */
+    public void addSpec(String spec) throws IOException {
+        String path = spec;
+        int first = 0;
+        int last = Integer.MAX_VALUE;
+
+        final int colon = spec.lastIndexOf(':');
+        if (colon > 0 && spec.substring(colon + 1).matches("\\d*-\\d*")) {
+            final String range = spec.substring(colon + 1);
+            final int dash = range.indexOf('-');
+            final String from = range.substring(0, dash);
+            final String to = range.substring(dash + 1);
+
+            path = spec.substring(0, colon);
+            first = from.isEmpty() ? 0 : Integer.parseInt(from) - 1;
+            last = to.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(to);
+        }
+
+        if (path.equals(STDIN)) {
+            if (stdin == null)
+                stdin = System.in.readAllBytes();
+            add(stdin, STDIN, first, last);
+        }
+        else {
+            add(path, first, last);
+        }
+    }
+
+    /**
+     * Select the pages of the sequence that will be imported, so that only 
+     * those are loaded from the sources.
+     *
+     * @param first page number of first page starting from 0.
+     * @param last page number after the last page.
+     */
+    public void select(int first, int last) {
+        selectFirst = first;
+        selectLast = last;
+    }
+
+    /**
+     * Indicate whether imported pages should refer to the objects of the 
+     * source documents rather than copies of them. The sources then stay 
+     * open until close() is called.
+     *
+     * @param state true to share the source objects, false to clone them.
+     */
+    public void setShared(boolean state) {
+        shared = state;
+    }
+
+    /**
+     * @return true if imported pages refer to the source objects.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Indicate whether imported pages should be reused by the documents 
+     * generated after the first. The documents the pages were imported into 
+     * must then be passed to keep() rather than closed.
+     *
+     * @param state true to import each page once, false to import it again 
+     * for each document.
+     */
+    public void setReuse(boolean state) {
+        forms = state ? new HashMap<>() : null;
+    }
+
+    /**
+     * Set the cache used by the source documents for the resources resolved 
+     * from them, in place of the PDFBox default.
+     *
+     * @param cache to use, or null for the PDFBox default.
+     */
+    public void setResourceCache(ResourceCache cache) {
+        this.cache = cache;
+        for (Source source : sources) {
+            if (source.doc != null && cache != null)
+                source.doc.setResourceCache(cache);
+        }
+    }
+
+    /**
+     * Set the check made before, during and after a source is opened, so 
+     * that a job can stop while a huge source is being loaded.
+     *
+     * @param check to stop the loads, or null to load without checking.
+     */
+    public void setCancelCheck(CancelToken.Check check) {
+        this.check = check;
+    }
+
+    /**
+     * Set whether the details of the source files are remembered in the 
+     * SourceCache file. Jobs that must not write to disk, such as those 
+     * writing the booklet to a stream, turn this off to keep the details in 
+     * memory for the job alone. Must be called before the sources are added.
+     *
+     * @param cached true to use the SourceCache file, false to keep the 
+     * details in memory.
+     */
+    public void setCached(boolean cached) {
+        details = cached ? SourceCache.getCache() : SourceCache.inMemory();
+    }
+
+    /**
+     * Take over a generated document that may hold reused forms, so that it 
+     * stays open until close() is called.
+     *
+     * @param doc a generated document.
+     * @return true if the document will be closed by close(), false if the 
+     * caller should close it.
+     */
+    public boolean keep(PDDocument doc) {
+        if (forms == null)
+            return false;
+
+        owners.add(doc);
+
+        return true;
+    }
+
+    /**
+     * @return the total number of pages in the sequence.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return the number of source ranges in the sequence.
+     */
+    public int getSourceCount() {
+        return sources.size();
+    }
+
+    /**
+     * @return the file paths of the source ranges in the sequence, in order.
+     */
+    public List<String> getFiles() {
+        List<String> files = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            files.add(source.path);
+        }
+
+        return files;
+    }
+
+    /**
+     * Get the file path of the source a page of the sequence comes from.
+     *
+     * @param page number of page in the sequence starting from 0.
+     * @return the file path, or null if the page is not in the sequence.
+     */
+    public String getPath(int page) {
+        try {
+            return find(page).path;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the page number within its source document of a page of the 
+     * sequence.
+     *
+     * @param page number of page in the sequence starting from 0.
+     * @return the page number in the source starting from 0, or -1 if the 
+     * page is not in the sequence.
+     */
+    public int getSourcePage(int page) {
+        try {
+            final Source source = find(page);
+
+            return source.first + page - source.start;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Estimate the number of bytes of the source documents used by a range 
+     * of pages of the sequence, by sharing the size of each source file 
+     * equally between its pages. This only uses the SourceCache, so the 
+     * sources are not parsed again.
+     *
+     * @param first page number of first page in the sequence starting from 0.
+     * @param last page number after the last page.
+     * @return the estimated number of source bytes.
+     */
+    public long getSourceBytes(int first, int last) {
+        long bytes = 0;
+        for (Source source : sources) {
+            final int from = Math.max(first, source.start);
+            final int to = Math.min(last, source.end());
+            if (from >= to)
+                continue;
+
+            try {
+                final SourceCache.DocInfo info = getInfo(source, 0, 0);
+                if (info.getPageCount() > 0)
+                    bytes += info.getSize() * (to - from) / info.getPageCount();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Count the pages in a range of the sequence that differ from each other, 
+     * going by the page digests held in the SourceCache. Pages with the same 
+     * digest are imported once, as the generator does, and a page without a 
+     * digest is always counted.
+     *
+     * @param first page number of first page in the sequence starting from 0.
+     * @param last page number after the last page.
+     * @return the number of distinct pages.
+     */
+    public int getDistinctPages(int first, int last) {
+        int count = 0;
+        for (Source source : sources) {
+            final int from = Math.max(first, source.start);
+            final int to = Math.min(last, source.end());
+            if (from >= to)
+                continue;
+
+            try {
+                final int begin = source.first + from - source.start;
+                final int end = source.first + to - source.start;
+                final SourceCache.DocInfo info = getInfo(source, begin, end);
+                Set<Long> digests = new HashSet<>();
+                for (int index = begin; index < end; ++index) {
+                    final SourceCache.PageInfo page = info.getPage(index);
+                    if (page == null)
+                        continue;
+                    if (page.getDigest() == 0)
+                        count++;
+                    else
+                        digests.add(page.getDigest());
+                }
+                count += digests.size();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                count += to - from;
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Source source : sources) {
+            if (builder.length() > 0)
+                builder.append(", ");
+            builder.append(source.path);
+            if (source.count > 0)
+                builder.append(':').append(source.first + 1).append('-')
+                    .append(source.first + source.count);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Find the source containing a page of the sequence.
+     */
+    private Source find(int page) throws IOException {
+        if (page < 0 || page >= pageCount)
+            throw new IOException("Page " + (page + 1) + " is not in the source documents");
+
+        int low = 0;
+        int high = sources.size() - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (sources.get(mid).start <= page)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        // Skip any empty ranges.
+        while (sources.get(low).end() <= page)
+            ++low;
+
+        return sources.get(low);
+    }
+
+    /**
+     * Import a page of the sequence into a document as a form XObject, 
+     * opening the source document if necessary.
+     *
+     * @param target document to import the page into.
+     * @param page number of page in the sequence starting from 0.
+     * @return the page as a form XObject belonging to the target document, 
+     * or to an earlier document if imported pages are being reused.
+     */
+    public PDFormXObject importPageAsForm(PDDocument target, int page) 
+            throws IOException {
+        if (forms == null)
+            return importForm(target, page);
+
+        PDFormXObject form = forms.get(page);
+        if (form == null) {
+            form = importForm(target, page);
+            forms.put(page, form);
+        }
+
+        return form;
+    }
+
+    private PDFormXObject importForm(PDDocument target, int page) 
+            throws IOException {
+        Source source = find(page);
+        if (source.doc == null) {
+            load(source);
+        }
+
+        final PDPage sourcePage = source.getPage(source.first + page - source.start);
+        final ByteBuffer digest = PageDigest.of(sourcePage);
+        Map<ByteBuffer, PDFormXObject> copies = 
+            source.copies.computeIfAbsent(target, k -> new HashMap<>());
+        if (digest != null) {
+            final PDFormXObject form = copies.get(digest);
+            if (form != null) {
+                duplicates++;
+
+                return form;
+            }
+        }
+
+        PDFormXObject form;
+        if (shared) {
+            form = shareForm(target, source.doc, sourcePage);
+        }
+        else {
+            LayerUtility layer = source.layers.computeIfAbsent(target, k -> new LayerUtility(k));
+            form = layer.importPageAsForm(source.doc, sourcePage);
+        }
+        if (digest != null)
+            copies.put(digest, form);
+
+        return form;
+    }
+
+    /**
+     * @return the number of pages imported so far that repeated an earlier 
+     * page of the same source and share its form XObject.
+     */
+    public int getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * Open a source, loading only the selected pages if possible.
+     */
+    private void load(Source source) throws IOException {
+        final int first = Math.max(selectFirst, source.start) - source.start + source.first;
+        final int last = Math.min(selectLast, source.end()) - source.start + source.first;
+        if (check != null)
+            check.check();
+        load(source, first, last);
+        if (check != null)
+            check.check();
+    }
+
+    /**
+     * Open a source, loading only a range of its pages if possible.
+     *
+     * @param source to open.
+     * @param first page number of first page needed starting from 0.
+     * @param last page number after the last page needed.
+     */
+    private void load(Source source, int first, int last) throws IOException {
+        try {
+            source.parser = (source.data == null) ? 
+                RangeParser.load(new File(source.path), first, last, check) : 
+                RangeParser.load(source.data, first, last, check);
+            source.doc = source.parser.getPDDocument();
+            if (cache != null)
+                source.doc.setResourceCache(cache);
+
+            return;
+        } catch (JobCancelledException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Loading all of " + source.path + ": " + e.getMessage());
+        }
+
+        source.doc = (source.data == null) ? 
+            ResourceMonitor.load(new File(source.path)) : 
+            ResourceMonitor.load(source.data);
+        if (cache != null)
+            source.doc.setResourceCache(cache);
+    }
+
+    /**
+     * Get the details of a source and of a range of its pages, from the 
+     * SourceCache if it is a file.
+     *
+     * @param source to get the details of.
+     * @param first page number of first page in the document starting from 0.
+     * @param last page number after the last page in the document.
+     */
+    private SourceCache.DocInfo getInfo(Source source, int first, int last) 
+            throws IOException {
+        if (source.data == null)
+            return details.get(source.path, first, last);
+
+        if (first >= last)
+            return source.info;
+
+        return SourceCache.getCache().get(source.data, first, last);
+    }
+
+    /**
+     * Build a form XObject for a source page that refers to the resources of 
+     * the source document instead of cloning them. The form is set up in the 
+     * same way as LayerUtility.importPageAsForm().
+     *
+     * @param target document the form is for.
+     * @param doc the source document.
+     * @param page of the source document.
+     * @return the page as a form XObject.
+     */
+    private static PDFormXObject shareForm(PDDocument target, PDDocument doc, PDPage page) 
+            throws IOException {
+        shareOptionalContent(target, doc);
+
+        PDFormXObject form = new PDFormXObject(copyContents(target, page));
+        form.setResources(page.getResources());
+
+        final COSDictionary dict = page.getCOSObject();
+        for (COSName key : PAGE_TO_FORM) {
+            final COSBase value = dict.getItem(key);
+            if (value != null)
+                form.getCOSObject().setItem(key, value);
+        }
+
+        final PDRectangle mediaBox = page.getMediaBox();
+        final PDRectangle viewBox = page.getCropBox();
+        final float width = viewBox.getWidth();
+        final float height = viewBox.getHeight();
+
+        AffineTransform at = new AffineTransform();
+        at.translate(mediaBox.getLowerLeftX() - viewBox.getLowerLeftX(), 
+                mediaBox.getLowerLeftY() - viewBox.getLowerLeftY());
+        switch (page.getRotation()) {
+            case 90:
+                at.scale(width / height, height / width);
+                at.translate(0, width);
+                at.rotate(-Math.PI / 2.0);
+                break;
+
+            case 180:
+                at.translate(width, height);
+                at.rotate(-Math.PI);
+                break;
+
+            case 270:
+                at.scale(width / height, height / width);
+                at.translate(height, 0);
+                at.rotate(-Math.PI * 1.5);
+                break;
+        }
+        at.translate(-viewBox.getLowerLeftX(), -viewBox.getLowerLeftY());
+        if (!at.isIdentity())
+            form.setMatrix(at);
+
+        form.setBBox(new PDRectangle(viewBox.getLowerLeftX(), viewBox.getLowerLeftY(), 
+                width, height));
+
+        return form;
+    }
+
+    /**
+     * Copy the content of a page into a new stream for a form XObject. A 
+     * single content stream is copied as it is, without decoding it, several 
+     * are decoded and joined.
+     */
+    private static COSStream copyContents(PDDocument target, PDPage page) 
+            throws IOException {
+        COSStream stream = target.getDocument().createCOSStream();
+        final COSBase contents = page.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+
+        if (contents instanceof COSStream) {
+            final COSStream source = (COSStream)contents;
+            stream.setItem(COSName.FILTER, source.getItem(COSName.FILTER));
+            stream.setItem(COSName.DECODE_PARMS, source.getItem(COSName.DECODE_PARMS));
+            try (InputStream in = source.createRawInputStream();
+                OutputStream out = stream.createRawOutputStream()) {
+                in.transferTo(out);
+            }
+        }
+        else {
+            try (OutputStream out = stream.createOutputStream(COSName.FLATE_DECODE)) {
+                for (Iterator<PDStream> it = page.getContentStreams(); it.hasNext(); ) {
+                    try (InputStream in = it.next().createInputStream()) {
+                        in.transferTo(out);
+                    }
+                    out.write('\n');
+                }
+            }
+        }
+
+        return stream;
+    }
+
+    /**
+     * Make the optional content groups of a source available to the target, 
+     * as LayerUtility does, but without cloning them.
+     */
+    private static void shareOptionalContent(PDDocument target, PDDocument doc) {
+        final PDOptionalContentProperties from = doc.getDocumentCatalog().getOCProperties();
+        if (from == null)
+            return;
+
+        final PDDocumentCatalog catalog = target.getDocumentCatalog();
+        final PDOptionalContentProperties to = catalog.getOCProperties();
+        if (to == null) {
+            catalog.setOCProperties(from);
+
+            return;
+        }
+        if (to == from)
+            return;
+
+        for (PDOptionalContentGroup group : from.getOptionalContentGroups()) {
+            if (!to.hasGroup(group.getName()))
+                to.addGroup(group);
+        }
+    }
+
+    /**
+     * Close the source documents whose pages all come before a given page, 
+     * as they will not be needed again.
+     *
+     * @param page number of the first page still needed.
+     */
+    public void release(int page) {
+        if (shared)
+            return;
+
+        for (Source source : sources) {
+            if (source.end() > page)
+                break;
+
+            close(source);
+        }
+    }
+
+    /**
+     * Forget the imports into a target document, for when no more pages 
+     * will be imported into it.
+     *
+     * @param target document pages were imported into.
+     */
+    public void forget(PDDocument target) {
+        for (Source source : sources) {
+            source.layers.remove(target);
+            source.copies.remove(target);
+        }
+    }
+
+    /**
+     * Close all the open source documents and any generated documents that 
+     * have been kept.
+     */
+    public void close() {
+        for (Source source : sources) {
+            close(source);
+        }
+
+        for (PDDocument doc : owners) {
+            try {
+                doc.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        owners.clear();
+        if (forms != null)
+            forms.clear();
+    }
+
+    private static void close(Source source) {
+        source.layers.clear();
+        source.copies.clear();
+        if (source.doc == null)
+            return;
+
+        try {
+            source.doc.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        source.doc = null;
+        source.parser = null;
+    }
+
+}
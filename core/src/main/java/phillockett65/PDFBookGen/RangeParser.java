@@ -0,0 +1,530 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * RangeParser is a class that loads only the part of a source PDF needed to 
+ * import a range of its pages.
+ *
+ * PDFBox normally parses every object reachable from the document catalog 
+ * when a document is loaded, so selecting a few pages of a huge document 
+ * costs as much as selecting all of them. RangeParser replaces that step: it 
+ * walks down the page tree using the page counts to skip the branches 
+ * outside the range and only resolves the selected pages. Where every kid of 
+ * a node is a single page, as in the flat page trees many tools write, only 
+ * the kids in the range are resolved at all. As the rest of the page tree is 
+ * not resolved, the selected pages are found with getPage() rather than 
+ * through the document.
+ *
+ * For each selected page the content streams are resolved first and scanned 
+ * for the resource names they use. Only those resources are resolved, and 
+ * the page is given a resource dictionary holding only those entries, shared 
+ * by the pages that use the same ones. A large resource dictionary shared by 
+ * every page of the document is then not resolved, imported or written in 
+ * full for each booklet. If a form, Type3 font or tiling pattern used by the 
+ * page has no resources of its own, it inherits those of the page, so the 
+ * page resources are kept in full.
+ *
+ * Objects that have not been resolved read as null, so a document loaded 
+ * this way must only be used to import the selected pages and must never 
+ * be saved.
+ *
+ * A job can stop the load between pages, so a huge selection can be 
+ * cancelled while it is being scanned.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessBuffer;
+import org.apache.pdfbox.io.RandomAccessBufferedFileInputStream;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+
+public class RangeParser extends PDFParser {
+
+    // Page entries needed to import a page, as well as its resources.
+    private static final COSName[] PAGE_KEYS = { 
+            COSName.CONTENTS, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE, 
+            COSName.GROUP, COSName.LAST_MODIFIED, COSName.METADATA };
+
+    // Page tree node entries that can be inherited by the pages.
+    private static final COSName[] INHERITED_KEYS = { 
+            COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE };
+
+    private final int first;
+    private final int last;
+    private final Map<Integer, PDPage> pages = new HashMap<>();
+    private int count = 0;              // Pages in the document.
+    private final CancelToken.Check check;  // Null if it cannot be stopped.
+
+    // Reduced resource dictionaries by original and names kept.
+    private final Map<COSDictionary, Map<Set<COSName>, COSDictionary>> reduced = 
+        new IdentityHashMap<>();
+
+
+    /**
+     * Constructor.
+     *
+     * @param source the PDF to parse.
+     * @param scratchFile for the stream data.
+     * @param first page number of first page needed starting from 0.
+     * @param last page number after the last page needed.
+     * @param check to stop the load between pages, or null.
+     */
+    private RangeParser(RandomAccessRead source, ScratchFile scratchFile, 
+            int first, int last, CancelToken.Check check) throws IOException {
+        super(source, "", null, null, scratchFile);
+        this.first = first;
+        this.last = last;
+        this.check = check;
+    }
+
+    /**
+     * Load the part of a PDF needed to import a range of its pages.
+     *
+     * @param file the source PDF.
+     * @param first page number of first page needed starting from 0.
+     * @param last page number after the last page needed, which may be 
+     * beyond the end of the document.
+     * @return the parser, which supplies the partly loaded document and its 
+     * selected pages.
+     */
+    public static RangeParser load(File file, int first, int last) throws IOException {
+        return load(file, first, last, null);
+    }
+
+    /**
+     * Load the part of a PDF needed to import a range of its pages, stopping 
+     * between pages if the job should stop.
+     *
+     * @param file the source PDF.
+     * @param first page number of first page needed starting from 0.
+     * @param last page number after the last page needed, which may be 
+     * beyond the end of the document.
+     * @param check to stop the load, or null.
+     * @return the parser, which supplies the partly loaded document and its 
+     * selected pages.
+     * @throws JobCancelledException if the check fails during the load.
+     */
+    public static RangeParser load(File file, int first, int last, 
+            CancelToken.Check check) throws IOException {
+        return load(new RandomAccessBufferedFileInputStream(file), first, last, check);
+    }
+
+    /**
+     * Load the part of a PDF held in memory needed to import a range of its 
+     * pages. The data is used as it is, not copied.
+     *
+     * @param data the source PDF.
+     * @param first page number of first page needed starting from 0.
+     * @param last page number after the last page needed, which may be 
+     * beyond the end of the document.
+     * @return the parser, which supplies the partly loaded document and its 
+     * selected pages.
+     */
+    public static RangeParser load(byte[] data, int first, int last) throws IOException {
+        return load(data, first, last, null);
+    }
+
+    /**
+     * Load the part of a PDF held in memory needed to import a range of its 
+     * pages, stopping between pages if the job should stop. The data is used 
+     * as it is, not copied.
+     *
+     * @param data the source PDF.
+     * @param first page number of first page needed starting from 0.
+     * @param last page number after the last page needed, which may be 
+     * beyond the end of the document.
+     * @param check to stop the load, or null.
+     * @return the parser, which supplies the partly loaded document and its 
+     * selected pages.
+     * @throws JobCancelledException if the check fails during the load.
+     */
+    public static RangeParser load(byte[] data, int first, int last, 
+            CancelToken.Check check) throws IOException {
+        return load(new RandomAccessBuffer(data), first, last, check);
+    }
+
+    /**
+     * Parse the source, closing it if the parse fails.
+     */
+    private static RangeParser load(RandomAccessRead source, int first, int last, 
+            CancelToken.Check check) throws IOException {
+        ScratchFile scratchFile = null;
+        try {
+            scratchFile = ResourceMonitor.newScratchFile(MemoryUsageSetting.setupMainMemoryOnly());
+            RangeParser parser = new RangeParser(source, scratchFile, first, last, check);
+            parser.parse();
+            ResourceMonitor.register(parser.getPDDocument());
+
+            return parser;
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(scratchFile);
+            IOUtils.closeQuietly(source);
+            throw e;
+        }
+    }
+
+    /**
+     * Get a selected page of the document.
+     *
+     * @param index of the page in the document starting from 0.
+     * @return the page.
+     */
+    public PDPage getPage(int index) throws IOException {
+        final PDPage page = pages.get(index);
+        if (page == null)
+            throw new IOException("Page " + (index + 1) + " has not been loaded");
+
+        return page;
+    }
+
+    /**
+     * @return the number of pages in the document, found from the page tree 
+     * without loading the pages outside the range.
+     */
+    public int getPageCount() {
+        return count;
+    }
+
+    /**
+     * Replaces the parsing of the whole document by PDFParser.
+     */
+    @Override
+    protected void initialParse() throws IOException {
+        final COSDictionary trailer = retrieveTrailer();
+        final COSBase base = parseTrailerValuesDynamically(trailer);
+        if (!(base instanceof COSDictionary))
+            throw new IOException("Expected root dictionary, but got this: " + base);
+
+        final COSDictionary root = (COSDictionary)base;
+        resolveAll(root.getItem(COSName.OCPROPERTIES));
+
+        final COSBase pages = resolve(root.getItem(COSName.PAGES));
+        if (!(pages instanceof COSDictionary))
+            throw new IOException("Page tree root must be a dictionary");
+
+        count = walk((COSDictionary)pages, 0);
+
+        document.setDecrypted();
+        initialParseDone = true;
+    }
+
+    /**
+     * Walk down a branch of the page tree, loading the selected pages.
+     *
+     * @param node of the page tree, or a page.
+     * @param start number of the first page in the branch.
+     * @return the number of pages in the branch.
+     */
+    private int walk(COSDictionary node, int start) throws IOException {
+        if (check != null)
+            check.check();
+
+        final COSBase kids = resolve(node.getItem(COSName.KIDS));
+        if (!(kids instanceof COSArray)) {
+            if (start >= first && start < last) {
+                loadPage(node);
+                pages.put(start, new PDPage(node));
+            }
+
+            return 1;
+        }
+
+        for (COSName key : INHERITED_KEYS) {
+            resolveAll(node.getItem(key));
+        }
+
+        final COSArray array = (COSArray)kids;
+        resolve(node.getItem(COSName.COUNT));
+        final boolean flat = node.getInt(COSName.COUNT, -1) == array.size();
+
+        int page = start;
+        for (COSBase kid : array) {
+            if (flat && (page < first || page >= last)) {
+                // A single page outside the range.
+                ++page;
+                continue;
+            }
+
+            final COSBase value = resolve(kid);
+            if (!(value instanceof COSDictionary))
+                continue;
+
+            final COSDictionary dict = (COSDictionary)value;
+            int count = 1;
+            if (resolve(dict.getItem(COSName.KIDS)) instanceof COSArray) {
+                resolve(dict.getItem(COSName.COUNT));
+                count = dict.getInt(COSName.COUNT, 0);
+            }
+
+            if (page < last && page + count > first)
+                walk(dict, page);
+
+            page += count;
+        }
+
+        return page - start;
+    }
+
+    /**
+     * Load a selected page and the resources it uses.
+     *
+     * @param page dictionary of the page.
+     */
+    private void loadPage(COSDictionary page) throws IOException {
+        for (COSName key : PAGE_KEYS) {
+            resolveAll(page.getItem(key));
+        }
+
+        COSDictionary resources = null;
+        for (COSDictionary node = page; node != null; ) {
+            final COSBase value = node.getItem(COSName.RESOURCES);
+            if (value != null) {
+                final COSBase dict = resolve(value);
+                if (dict instanceof COSDictionary)
+                    resources = (COSDictionary)dict;
+                break;
+            }
+
+            final COSBase parent = resolve(node.getItem(COSName.PARENT));
+            node = (parent instanceof COSDictionary) ? (COSDictionary)parent : null;
+        }
+        if (resources == null)
+            return;
+
+        final Set<COSName> names = getNames(page.getDictionaryObject(COSName.CONTENTS));
+
+        // Only keep the names that are resources.
+        Set<COSName> kept = new HashSet<>();
+        boolean all = true;
+        for (COSBase value : resources.getValues()) {
+            value = resolve(value);
+            if (!(value instanceof COSDictionary) || value instanceof COSStream)
+                continue;
+
+            for (COSName name : ((COSDictionary)value).keySet()) {
+                if (names.contains(name))
+                    kept.add(name);
+                else
+                    all = false;
+            }
+        }
+
+        if (all) {
+            resolveAll(resources);
+
+            return;
+        }
+
+        Map<Set<COSName>, COSDictionary> variants = 
+            reduced.computeIfAbsent(resources, k -> new HashMap<>());
+        COSDictionary used = variants.get(kept);
+        if (used == null) {
+            used = reduce(resources, kept);
+            variants.put(kept, used);
+        }
+        page.setItem(COSName.RESOURCES, used);
+    }
+
+    /**
+     * Build a resource dictionary holding only the given names, resolving 
+     * those entries.
+     *
+     * @param resources the full resource dictionary.
+     * @param names the resource names to keep.
+     * @return the reduced resource dictionary, or the full one if a form, 
+     * Type3 font or pattern in it relies on the page resources.
+     */
+    private COSDictionary reduce(COSDictionary resources, Set<COSName> names) 
+            throws IOException {
+        COSDictionary used = new COSDictionary();
+        for (Map.Entry<COSName, COSBase> entry : resources.entrySet()) {
+            final COSBase value = resolve(entry.getValue());
+            if (!(value instanceof COSDictionary) || value instanceof COSStream) {
+                resolveAll(entry.getValue());
+                used.setItem(entry.getKey(), entry.getValue());
+                continue;
+            }
+
+            COSDictionary category = new COSDictionary();
+            for (Map.Entry<COSName, COSBase> item : ((COSDictionary)value).entrySet()) {
+                if (names.contains(item.getKey())) {
+                    resolveAll(item.getValue());
+                    category.setItem(item.getKey(), item.getValue());
+                }
+            }
+            used.setItem(entry.getKey(), category);
+        }
+
+        if (inheritsResources(used)) {
+            resolveAll(resources);
+
+            return resources;
+        }
+
+        return used;
+    }
+
+    /**
+     * @return true if a form, Type3 font or tiling pattern in the resources 
+     * relies on the page resources.
+     */
+    private static boolean inheritsResources(COSDictionary resources) {
+        for (COSDictionary item : getItems(resources, COSName.XOBJECT)) {
+            if (COSName.FORM.equals(item.getCOSName(COSName.SUBTYPE)) && 
+                    !item.containsKey(COSName.RESOURCES))
+                return true;
+        }
+
+        for (COSDictionary item : getItems(resources, COSName.FONT)) {
+            if (COSName.TYPE3.equals(item.getCOSName(COSName.SUBTYPE)) && 
+                    !item.containsKey(COSName.RESOURCES))
+                return true;
+        }
+
+        for (COSDictionary item : getItems(resources, COSName.PATTERN)) {
+            if (item.getInt(COSName.PATTERN_TYPE) == 1 && 
+                    !item.containsKey(COSName.RESOURCES))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the dictionaries, including streams, in a resource category.
+     */
+    private static List<COSDictionary> getItems(COSDictionary resources, 
+            COSName category) {
+        List<COSDictionary> items = new ArrayList<>();
+        final COSBase values = resources.getDictionaryObject(category);
+        if (!(values instanceof COSDictionary))
+            return items;
+
+        for (COSBase value : ((COSDictionary)values).getValues()) {
+            if (value instanceof COSObject)
+                value = ((COSObject)value).getObject();
+            if (value instanceof COSDictionary)
+                items.add((COSDictionary)value);
+        }
+
+        return items;
+    }
+
+    /**
+     * Find all the names used in page content. Resource names are always 
+     * operands, so any resource whose name does not appear is not used.
+     *
+     * @param contents a content stream or an array of content streams.
+     * @return the names found.
+     */
+    private static Set<COSName> getNames(COSBase contents) throws IOException {
+        Set<COSName> names = new HashSet<>();
+        if (contents instanceof COSStream) {
+            addNames((COSStream)contents, names);
+        }
+        else if (contents instanceof COSArray) {
+            for (COSBase item : (COSArray)contents) {
+                if (item instanceof COSObject)
+                    item = ((COSObject)item).getObject();
+                if (item instanceof COSStream)
+                    addNames((COSStream)item, names);
+            }
+        }
+
+        return names;
+    }
+
+    private static void addNames(COSStream stream, Set<COSName> names) throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(new PDStream(stream).toByteArray());
+        try {
+            for (Object token = parser.parseNextToken(); token != null; 
+                    token = parser.parseNextToken()) {
+                if (token instanceof COSName) {
+                    names.add((COSName)token);
+                }
+                else if (token instanceof Operator) {
+                    // An inline image can name a colour space resource.
+                    final COSDictionary image = ((Operator)token).getImageParameters();
+                    if (image != null) {
+                        for (COSBase value : image.getValues()) {
+                            if (value instanceof COSName)
+                                names.add((COSName)value);
+                        }
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Resolve a value, but not the values it refers to.
+     *
+     * @return the resolved value, which may be null.
+     */
+    private COSBase resolve(COSBase value) throws IOException {
+        if (!(value instanceof COSObject))
+            return value;
+
+        final COSObject object = (COSObject)value;
+        if (object.getObject() == null)
+            parseObjectDynamically(object, false);
+
+        return object.getObject();
+    }
+
+    /**
+     * Resolve a value and everything reachable from it.
+     */
+    private void resolveAll(COSBase value) throws IOException {
+        if (value == null)
+            return;
+
+        COSDictionary holder = new COSDictionary();
+        holder.setItem(COSName.A, value);
+        parseDictObjects(holder, (COSName[])null);
+    }
+
+}
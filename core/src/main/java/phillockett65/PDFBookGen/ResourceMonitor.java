@@ -0,0 +1,385 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ResourceMonitor is a class that keeps account of the resources held by the 
+ * engine, so that a process that runs for days can show it is not leaking 
+ * them: the PDF documents that are open, the bytes held in PDFBox scratch 
+ * buffers and the file handles open in the process.
+ *
+ * The engine creates and loads its documents through this class. Each one 
+ * is given a scratch file that counts the bytes in its buffers, and stays 
+ * registered until it is closed. A document that is never closed stays in 
+ * the count, so a leak shows up as a count that keeps on growing rather than 
+ * being hidden by the garbage collector.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccess;
+import org.apache.pdfbox.io.RandomAccessBuffer;
+import org.apache.pdfbox.io.RandomAccessBufferedFileInputStream;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+public class ResourceMonitor {
+
+    private static final Set<PDDocument> documents = 
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    private static final AtomicLong opened = new AtomicLong();
+    private static final AtomicLong scratch = new AtomicLong();
+    private static final AtomicLong peakScratch = new AtomicLong();
+
+    private ResourceMonitor() {
+    }
+
+    /**
+     * Create a new empty document, as new PDDocument() does, with its 
+     * streams held in counted main memory scratch buffers.
+     *
+     * @return the new document.
+     */
+    public static PDDocument newDocument() throws IOException {
+        COSDocument cos = new COSDocument(newScratchFile(MemoryUsageSetting.setupMainMemoryOnly()));
+
+        COSDictionary trailer = new COSDictionary();
+        cos.setTrailer(trailer);
+
+        COSDictionary root = new COSDictionary();
+        trailer.setItem(COSName.ROOT, root);
+        root.setItem(COSName.TYPE, COSName.CATALOG);
+        root.setItem(COSName.VERSION, COSName.getPDFName("1.4"));
+
+        COSDictionary pages = new COSDictionary();
+        root.setItem(COSName.PAGES, pages);
+        pages.setItem(COSName.TYPE, COSName.PAGES);
+        pages.setItem(COSName.KIDS, new COSArray());
+        pages.setItem(COSName.COUNT, COSInteger.ZERO);
+
+        return register(new PDDocument(cos));
+    }
+
+    /**
+     * Load a PDF, as PDDocument.load() does, with its streams held in main 
+     * memory.
+     *
+     * @param file of the PDF.
+     * @return the loaded document.
+     */
+    public static PDDocument load(File file) throws IOException {
+        return load(file, MemoryUsageSetting.setupMainMemoryOnly());
+    }
+
+    /**
+     * Load a PDF, as PDDocument.load() does. If the PDF cannot be loaded the 
+     * file and the scratch file are closed before the exception is thrown.
+     *
+     * @param file of the PDF.
+     * @param setting where the scratch buffers are held.
+     * @return the loaded document.
+     */
+    public static PDDocument load(File file, MemoryUsageSetting setting) 
+            throws IOException {
+        return load(new RandomAccessBufferedFileInputStream(file), setting);
+    }
+
+    /**
+     * Load a PDF held in memory. The data is used as it is, not copied.
+     *
+     * @param data the PDF.
+     * @return the loaded document.
+     */
+    public static PDDocument load(byte[] data) throws IOException {
+        return load(new RandomAccessBuffer(data), MemoryUsageSetting.setupMainMemoryOnly());
+    }
+
+    /**
+     * Parse a PDF, closing the source if the parse fails.
+     */
+    private static PDDocument load(RandomAccessRead source, MemoryUsageSetting setting) 
+            throws IOException {
+        ScratchFile scratchFile = null;
+        try {
+            scratchFile = newScratchFile(setting);
+            PDFParser parser = new PDFParser(source, "", null, null, scratchFile);
+            parser.parse();
+
+            return register(parser.getPDDocument());
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(scratchFile);
+            IOUtils.closeQuietly(source);
+            throw e;
+        }
+    }
+
+    /**
+     * Create a scratch file that counts the bytes held in its buffers.
+     *
+     * @param setting where the buffers are held.
+     * @return the scratch file.
+     */
+    public static ScratchFile newScratchFile(MemoryUsageSetting setting) 
+            throws IOException {
+        return new CountingScratchFile(setting);
+    }
+
+    /**
+     * Count a document as open until it is closed.
+     *
+     * @param doc the document.
+     * @return the same document.
+     */
+    public static PDDocument register(PDDocument doc) {
+        synchronized (documents) {
+            prune();
+            documents.add(doc);
+        }
+        opened.incrementAndGet();
+
+        return doc;
+    }
+
+    /**
+     * @return the number of registered documents that have not been closed.
+     */
+    public static int getOpenDocuments() {
+        synchronized (documents) {
+            prune();
+
+            return documents.size();
+        }
+    }
+
+    /**
+     * @return the number of documents registered since the JVM started.
+     */
+    public static long getOpenedDocuments() { return opened.get(); }
+
+    /**
+     * @return the number of bytes currently held in counted scratch buffers.
+     */
+    public static long getScratchBytes() { return scratch.get(); }
+
+    /**
+     * @return the highest number of bytes held in counted scratch buffers.
+     */
+    public static long getPeakScratchBytes() { return peakScratch.get(); }
+
+    /**
+     * @return the number of file handles open in the process, -1 if the 
+     * platform does not report it.
+     */
+    public static long getOpenHandles() {
+        Object bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.UnixOperatingSystemMXBean)
+            return ((com.sun.management.UnixOperatingSystemMXBean)bean).getOpenFileDescriptorCount();
+
+        return -1;
+    }
+
+    /**
+     * @return a one line summary of the resources currently held.
+     */
+    public static String getSummary() {
+        return String.format("Resources: %d documents open (%d opened), %d KB scratch (peak %d KB), %d file handles", 
+            getOpenDocuments(), getOpenedDocuments(), getScratchBytes() / 1024, 
+            getPeakScratchBytes() / 1024, getOpenHandles());
+    }
+
+
+
+    /************************************************************************
+     * Support code for counting.
+     */
+
+    /**
+     * Forget the documents that have been closed. Called with the documents 
+     * locked.
+     */
+    private static void prune() {
+        for (Iterator<PDDocument> it = documents.iterator(); it.hasNext(); ) {
+            if (it.next().getDocument().isClosed())
+                it.remove();
+        }
+    }
+
+    private static void addScratch(long bytes) {
+        final long total = scratch.addAndGet(bytes);
+        peakScratch.accumulateAndGet(total, Math::max);
+    }
+
+    /**
+     * A scratch file whose buffers count their length. When the scratch file 
+     * is closed, it closes its buffers without telling them, so any bytes 
+     * still counted by them are given back here.
+     */
+    private static class CountingScratchFile extends ScratchFile {
+        private final Set<CountingBuffer> buffers = 
+                Collections.newSetFromMap(new IdentityHashMap<>());
+
+        CountingScratchFile(MemoryUsageSetting setting) throws IOException {
+            super(setting);
+        }
+
+        @Override
+        public RandomAccess createBuffer() throws IOException {
+            CountingBuffer buffer = new CountingBuffer(this, super.createBuffer());
+            synchronized (buffers) {
+                buffers.add(buffer);
+            }
+
+            return buffer;
+        }
+
+        void remove(CountingBuffer buffer) {
+            synchronized (buffers) {
+                buffers.remove(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                synchronized (buffers) {
+                    for (CountingBuffer buffer : buffers)
+                        buffer.release();
+                    buffers.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * A scratch buffer that keeps the count up to date with its length.
+     */
+    private static class CountingBuffer implements RandomAccess {
+        private final CountingScratchFile owner;
+        private final RandomAccess buffer;
+        private long counted = 0;
+
+        CountingBuffer(CountingScratchFile owner, RandomAccess buffer) {
+            this.owner = owner;
+            this.buffer = buffer;
+        }
+
+        private synchronized void update() throws IOException {
+            final long length = buffer.length();
+            addScratch(length - counted);
+            counted = length;
+        }
+
+        synchronized void release() {
+            addScratch(-counted);
+            counted = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer.write(b);
+            update();
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException {
+            buffer.write(b);
+            update();
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            buffer.write(b, offset, length);
+            update();
+        }
+
+        @Override
+        public void clear() throws IOException {
+            buffer.clear();
+            update();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                buffer.close();
+            } finally {
+                release();
+                owner.remove(this);
+            }
+        }
+
+        @Override
+        public int read() throws IOException { return buffer.read(); }
+
+        @Override
+        public int read(byte[] b) throws IOException { return buffer.read(b); }
+
+        @Override
+        public int read(byte[] b, int offset, int length) throws IOException { 
+            return buffer.read(b, offset, length); 
+        }
+
+        @Override
+        public long getPosition() throws IOException { return buffer.getPosition(); }
+
+        @Override
+        public void seek(long position) throws IOException { buffer.seek(position); }
+
+        @Override
+        public long length() throws IOException { return buffer.length(); }
+
+        @Override
+        public boolean isClosed() { return buffer.isClosed(); }
+
+        @Override
+        public int peek() throws IOException { return buffer.peek(); }
+
+        @Override
+        public void rewind(int bytes) throws IOException { buffer.rewind(bytes); }
+
+        @Override
+        public byte[] readFully(int length) throws IOException { return buffer.readFully(length); }
+
+        @Override
+        public boolean isEOF() throws IOException { return buffer.isEOF(); }
+
+        @Override
+        public int available() throws IOException { return buffer.available(); }
+    }
+
+}
@@ -0,0 +1,164 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SheetComposer is a class that builds the pages of the generated document, 
+ * one side of a sheet at a time, for the compose stage of the pipeline.
+ *
+ * A sheet side only holds a few operators for each slot, so rather than 
+ * going through a PDPageContentStream for every page, the operators are 
+ * written into a buffer that is reused for the whole job and then copied 
+ * into the page's content stream. The MediaBox array is shared by all the 
+ * pages, so building a page only allocates what ends up in the output.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.NumberFormatUtil;
+
+public class SheetComposer {
+
+    private static final byte[] SAVE = ascii("q\n");
+    private static final byte[] CONCATENATE = ascii("cm\n");
+    private static final byte[] DRAW = ascii(" Do\nQ\n");
+
+    // Same precision as PDPageContentStream.
+    private static final int FRACTION_DIGITS = 5;
+
+    private final COSArray mediaBox;
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream(512);
+    private final byte[] number = new byte[32];
+
+    private PDResources resources;
+    private int length = 0;
+
+
+    /**
+     * Constructor.
+     *
+     * @param pageSize of the generated pages.
+     */
+    public SheetComposer(PDRectangle pageSize) {
+        mediaBox = pageSize.getCOSArray();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Start a new side of a sheet, discarding anything not yet finished.
+     */
+    public void start() {
+        content.reset();
+        resources = new PDResources();
+    }
+
+    /**
+     * Draw an imported page on the current side of the sheet.
+     *
+     * @param form the imported source page.
+     * @param matrix that places the page in its slot.
+     */
+    public void draw(PDFormXObject form, Matrix matrix) throws IOException {
+        final COSName name = resources.add(form);
+
+        content.write(SAVE);
+        writeNumber(matrix.getValue(0, 0));
+        writeNumber(matrix.getValue(0, 1));
+        writeNumber(matrix.getValue(1, 0));
+        writeNumber(matrix.getValue(1, 1));
+        writeNumber(matrix.getValue(2, 0));
+        writeNumber(matrix.getValue(2, 1));
+        content.write(CONCATENATE);
+        name.writePDF(content);
+        content.write(DRAW);
+    }
+
+    /**
+     * Finish the current side of the sheet.
+     *
+     * @param doc the document the page is built for.
+     * @return the completed page, ready to be added to the document.
+     */
+    public PDPage finish(PDDocument doc) throws IOException {
+        COSStream stream = doc.getDocument().createCOSStream();
+        try (OutputStream out = stream.createOutputStream()) {
+            content.writeTo(out);
+        }
+
+        COSDictionary page = new COSDictionary();
+        page.setItem(COSName.TYPE, COSName.PAGE);
+        page.setItem(COSName.MEDIA_BOX, mediaBox);
+        page.setItem(COSName.RESOURCES, resources);
+        page.setItem(COSName.CONTENTS, stream);
+
+        length = content.size();
+        content.reset();
+        resources = null;
+
+        return new PDPage(page);
+    }
+
+    /**
+     * @return the length in bytes of the content of the last finished side.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Write a number followed by a space. PDF numbers have no exponent, so 
+     * a value too large for the fast formatter is written out in full.
+     */
+    private void writeNumber(float value) {
+        if (!Float.isFinite(value))
+            throw new IllegalArgumentException(value + " is not a finite number");
+
+        final int length = NumberFormatUtil.formatFloatFast(value, FRACTION_DIGITS, number);
+        if (length == -1) {
+            final BigDecimal exact = new BigDecimal(Float.toString(value))
+                .setScale(FRACTION_DIGITS, RoundingMode.HALF_UP).stripTrailingZeros();
+            final byte[] text = ascii(exact.toPlainString());
+            content.write(text, 0, text.length);
+        }
+        else {
+            content.write(number, 0, length);
+        }
+        content.write(' ');
+    }
+
+}
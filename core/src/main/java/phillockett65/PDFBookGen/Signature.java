@@ -23,7 +23,8 @@
  * changes to the selected first source page, last source page or the count of 
  * sheets in a signature are made. A source page is a page from the source 
  * document. The generated document has 2 source pages on each side of each 
- * sheet of paper, so there are 4 source pages on each printed sheet.
+ * sheet of paper, so there are 4 source pages on each printed sheet, unless 
+ * a Layout with more pages per sheet is used.
  * 
  * Available calculated values are:
  *   o Number of source pages in the generated document
@@ -44,16 +45,29 @@ public class Signature {
     private final int lastSigBlankCount;
 
     /**
-     * Construct a Signature and populate it with the required data.
+     * Construct a Signature for the 2-up layout and populate it with the 
+     * required data.
      * @param sigSize number of sheets of paper in each signature.
      * @param firstPage from the source document to be included.
      * @param lastPage from the source document to be included.
      */
     public Signature(int sigSize, int firstPage, int lastPage)
+    {
+        this(sigSize, firstPage, lastPage, 4);
+    }
+
+    /**
+     * Construct a Signature and populate it with the required data.
+     * @param sigSize number of sheets of paper in each signature.
+     * @param firstPage from the source document to be included.
+     * @param lastPage from the source document to be included.
+     * @param pagesPerSheet number of source pages on both sides of a sheet.
+     */
+    public Signature(int sigSize, int firstPage, int lastPage, int pagesPerSheet)
     {
         final int pageDiff = lastPage - firstPage;
         pageCount = pageDiff + 1;
-        sigPageCount = sigSize * 4;
+        sigPageCount = sigSize * pagesPerSheet;
         final int fullSigCount = pageDiff / sigPageCount;
         final int fullSigPageCount = fullSigCount * sigPageCount;
         sigCount = fullSigCount + 1;
@@ -0,0 +1,463 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SourceCache is a class that remembers the page count, page geometry and 
+ * page digests of recently used source PDFs across sessions, so that 
+ * reselecting a large document does not mean parsing it again.
+ *
+ * Entries are keyed by absolute file path and are only used if the size and 
+ * modification time of the file still match. The number of entries is 
+ * bounded and the least recently used entry is evicted first.
+ *
+ * A changed or new file is read with a RangeParser: the page count comes 
+ * from the page tree alone, and only the pages whose details are asked for 
+ * are loaded and digested. The details of further pages are added to 
+ * the entry as they are needed, so selecting a few pages of a huge document 
+ * costs little more than selecting them from a small one, even the first 
+ * time.
+ *
+ * The cache file is read and written by DataFile, in the directory it 
+ * gives. A file that fails the checksum is ignored and the cache starts 
+ * empty. A cache can also be held in memory only, for jobs that must not 
+ * write to disk.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+public class SourceCache {
+
+    private final static String CACHEFILE = "PageCache.dat";
+    private final static int MAGIC = 0x50424743;    // "PBGC"
+    private final static int VERSION = 3;
+    private final static int CAPACITY = 64;
+
+    private static SourceCache cache;
+
+    /**
+     * The geometry and digest of a source page.
+     */
+    public static class PageInfo {
+        private final PDRectangle mediaBox;
+        private final PDRectangle cropBox;
+        private final int rotation;
+        private final long digest;
+
+        PageInfo(PDRectangle mediaBox, PDRectangle cropBox, int rotation, 
+                long digest) {
+            this.mediaBox = mediaBox;
+            this.cropBox = cropBox;
+            this.rotation = rotation;
+            this.digest = digest;
+        }
+
+        public PDRectangle getMediaBox() { return mediaBox; }
+        public PDRectangle getCropBox() { return cropBox; }
+        public int getRotation() { return rotation; }
+
+        /**
+         * @return the leading bytes of the PageDigest of the page, which the 
+         * pages of the same document that repeat it share, or 0 if the page 
+         * has no digest.
+         */
+        public long getDigest() { return digest; }
+    }
+
+    /**
+     * The cached details of a source PDF and of the pages scanned so far. 
+     * A DocInfo is not changed once created, more pages give a new one.
+     */
+    public static class DocInfo {
+        private final long size;
+        private final long modified;
+        private final int pageCount;
+        private final Map<Integer, PageInfo> pages;
+
+        DocInfo(long size, long modified, int pageCount, 
+                Map<Integer, PageInfo> pages) {
+            this.size = size;
+            this.modified = modified;
+            this.pageCount = pageCount;
+            this.pages = Collections.unmodifiableMap(pages);
+        }
+
+        public long getSize() { return size; }
+        public int getPageCount() { return pageCount; }
+
+        /**
+         * @param index of the page starting from 0.
+         * @return the details of the page, or null if it has not been scanned.
+         */
+        public PageInfo getPage(int index) { return pages.get(index); }
+
+        /**
+         * @return true if this and other describe the same version of a file.
+         */
+        boolean matches(DocInfo other) {
+            return other != null && size == other.size && modified == other.modified;
+        }
+
+        /**
+         * @return a DocInfo holding the pages of both this and other.
+         */
+        DocInfo merge(DocInfo other) {
+            Map<Integer, PageInfo> all = new HashMap<>(pages);
+            all.putAll(other.pages);
+
+            return new DocInfo(size, modified, pageCount, all);
+        }
+    }
+
+    private final Path file;            // Null if held in memory only.
+    private final int capacity;
+    private Map<String, DocInfo> entries;
+    private int hits = 0;
+    private int misses = 0;
+
+
+    /**
+     * Constructor.
+     *
+     * @param path of the cache file.
+     * @param limit maximum number of documents to remember.
+     */
+    public SourceCache(String path, int limit) {
+        file = Paths.get(path).toAbsolutePath();
+        capacity = Math.max(1, limit);
+    }
+
+    /**
+     * Constructor for a cache held in memory only, which is never read from 
+     * or written to a file.
+     *
+     * @param limit maximum number of documents to remember.
+     */
+    public SourceCache(int limit) {
+        file = null;
+        capacity = Math.max(1, limit);
+    }
+
+    /**
+     * Create a cache held in memory only, with the same capacity as the one 
+     * shared by the application.
+     *
+     * @return the new cache.
+     */
+    public static SourceCache inMemory() {
+        return new SourceCache(CAPACITY);
+    }
+
+    /**
+     * @return the cache shared by the application.
+     */
+    public static synchronized SourceCache getCache() {
+        if (cache == null)
+            cache = new SourceCache(DataFile.get(CACHEFILE).toString(), CAPACITY);
+
+        return cache;
+    }
+
+    /**
+     * Get the size and page count of a source PDF, from the cache if the 
+     * file has not changed, otherwise by reading its page tree and adding it 
+     * to the cache.
+     *
+     * @param inPDF file path for source PDF.
+     * @return the details of the source PDF.
+     */
+    public DocInfo get(String inPDF) throws IOException {
+        return get(inPDF, 0, 0);
+    }
+
+    /**
+     * Get the details of a source PDF and of a range of its pages, from the 
+     * cache if the file has not changed and the pages have been scanned 
+     * before, otherwise by loading the pages not yet scanned and adding them 
+     * to the cache. The pages are loaded without holding the lock on the 
+     * cache, so lookups of other documents are not held up by the parse.
+     *
+     * @param inPDF file path for source PDF.
+     * @param first page number of first page starting from 0.
+     * @param last page number after the last page, which must not be beyond 
+     * the end of the document.
+     * @return the details of the source PDF.
+     */
+    public DocInfo get(String inPDF, int first, int last) throws IOException {
+        final File source = new File(inPDF).getAbsoluteFile();
+        final String key = source.getPath();
+        final long size = source.length();
+        final long modified = source.lastModified();
+
+        DocInfo info;
+        synchronized (this) {
+            load();
+            info = entries.get(key);
+            if (info != null && (info.size != size || info.modified != modified))
+                info = null;
+
+            if (info != null) {
+                last = Math.min(last, info.pageCount);
+                while (first < last && info.getPage(first) != null)
+                    ++first;
+                while (last > first && info.getPage(last - 1) != null)
+                    --last;
+
+                if (first >= last) {
+                    hits++;
+
+                    return info;
+                }
+            }
+
+            misses++;
+        }
+
+        info = read(source, null, size, modified, info, first, last);
+
+        synchronized (this) {
+            // Keep any pages added by another lookup in the meantime.
+            final DocInfo current = entries.get(key);
+            if (info.matches(current))
+                info = info.merge(current);
+            entries.put(key, info);
+            save();
+        }
+
+        return info;
+    }
+
+    /**
+     * Get the details of a source PDF held in memory and of a range of its 
+     * pages by loading those pages. These are not cached, as there is no 
+     * file to check them against.
+     *
+     * @param data the source PDF.
+     * @param first page number of first page starting from 0.
+     * @param last page number after the last page, which must not be beyond 
+     * the end of the document.
+     * @return the details of the source PDF.
+     */
+    public DocInfo get(byte[] data, int first, int last) throws IOException {
+        return read(null, data, data.length, 0, null, first, last);
+    }
+
+    /**
+     * Read the cache file now, rather than on the first lookup.
+     */
+    public synchronized void preload() {
+        load();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache.
+     */
+    public synchronized int getHits() { return hits; }
+
+    /**
+     * @return the number of lookups that needed the file to be parsed.
+     */
+    public synchronized int getMisses() { return misses; }
+
+
+
+    /************************************************************************
+     * Support code for collecting the page details.
+     */
+
+    /**
+     * Read the page count of a source PDF from its page tree and collect the 
+     * details of a range of its pages, loading only those pages. If the page 
+     * tree cannot be walked, the whole document is loaded instead.
+     *
+     * @param file the source PDF, or null if it is held in memory.
+     * @param data the source PDF, or null if it is read from file.
+     * @param size of the source PDF in bytes.
+     * @param modified time of the source PDF.
+     * @param info the details already known, or null.
+     * @param first page number of first page starting from 0.
+     * @param last page number after the last page.
+     * @return the details of the source PDF, including those already known.
+     */
+    private static DocInfo read(File file, byte[] data, long size, long modified, 
+            DocInfo info, int first, int last) throws IOException {
+        Map<Integer, PageInfo> pages = new HashMap<>();
+        if (info != null)
+            pages.putAll(info.pages);
+
+        try {
+            final RangeParser parser = (file != null) ? 
+                RangeParser.load(file, first, last) : 
+                RangeParser.load(data, first, last);
+            try {
+                final int count = parser.getPageCount();
+                for (int index = first; index < Math.min(last, count); ++index)
+                    pages.put(index, describe(parser.getPage(index)));
+
+                return new DocInfo(size, modified, count, pages);
+            } finally {
+                parser.getPDDocument().close();
+            }
+        } catch (IOException | RuntimeException e) {
+            final String name = (file != null) ? file.getPath() : "(memory)";
+            System.out.println("Loading all of " + name + ": " + e.getMessage());
+        }
+
+        try (PDDocument doc = (file != null) ? 
+                ResourceMonitor.load(file) : ResourceMonitor.load(data)) {
+            final int count = doc.getNumberOfPages();
+            for (int index = first; index < Math.min(last, count); ++index)
+                pages.put(index, describe(doc.getPage(index)));
+
+            return new DocInfo(size, modified, count, pages);
+        }
+    }
+
+    /**
+     * Collect the details of a page.
+     */
+    private static PageInfo describe(PDPage page) throws IOException {
+        final ByteBuffer digest = PageDigest.of(page);
+
+        return new PageInfo(page.getMediaBox(), page.getCropBox(), 
+                page.getRotation(), (digest == null) ? 0 : digest.getLong(0));
+    }
+
+
+
+    /************************************************************************
+     * Support code for reading and writing the cache file.
+     */
+
+    /**
+     * Create the LRU map, evicting the eldest entry beyond the capacity.
+     */
+    private Map<String, DocInfo> createMap() {
+        return new LinkedHashMap<String, DocInfo>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DocInfo> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private static void writeRect(DataOutputStream out, PDRectangle rect) 
+            throws IOException {
+        out.writeFloat(rect.getLowerLeftX());
+        out.writeFloat(rect.getLowerLeftY());
+        out.writeFloat(rect.getUpperRightX());
+        out.writeFloat(rect.getUpperRightY());
+    }
+
+    private static PDRectangle readRect(DataInputStream in) throws IOException {
+        final float llx = in.readFloat();
+        final float lly = in.readFloat();
+        final float urx = in.readFloat();
+        final float ury = in.readFloat();
+
+        return new PDRectangle(llx, lly, urx - llx, ury - lly);
+    }
+
+    /**
+     * Read the cache file, if it has not already been read.
+     */
+    private void load() {
+        if (entries != null)
+            return;
+
+        entries = createMap();
+        if (file == null)
+            return;
+
+        try {
+            DataInputStream in = DataFile.read(file, MAGIC, VERSION);
+            if (in == null)
+                return;
+
+            final int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String key = in.readUTF();
+                final long size = in.readLong();
+                final long modified = in.readLong();
+                final int pageCount = in.readInt();
+                final int scanned = in.readInt();
+                Map<Integer, PageInfo> pages = new HashMap<>();
+                for (int p = 0; p < scanned; ++p) {
+                    final int index = in.readInt();
+                    final PDRectangle mediaBox = readRect(in);
+                    final PDRectangle cropBox = readRect(in);
+                    final int rotation = in.readInt();
+                    pages.put(index, new PageInfo(mediaBox, cropBox, rotation, in.readLong()));
+                }
+                entries.put(key, new DocInfo(size, modified, pageCount, pages));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring page cache: " + e.getMessage());
+            entries = createMap();
+        }
+    }
+
+    /**
+     * Write the cache file.
+     */
+    private void save() {
+        if (file == null)
+            return;
+
+        try {
+            DataFile.write(file, MAGIC, VERSION, out -> {
+                out.writeInt(entries.size());
+                for (Map.Entry<String, DocInfo> entry : entries.entrySet()) {
+                    final DocInfo info = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(info.size);
+                    out.writeLong(info.modified);
+                    out.writeInt(info.pageCount);
+                    out.writeInt(info.pages.size());
+                    for (Map.Entry<Integer, PageInfo> item : info.pages.entrySet()) {
+                        final PageInfo page = item.getValue();
+                        out.writeInt(item.getKey());
+                        writeRect(out, page.mediaBox);
+                        writeRect(out, page.cropBox);
+                        out.writeInt(page.rotation);
+                        out.writeLong(page.digest);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * StageMetrics is a class that records how a stage of the generation 
+ * pipeline spends its time. Busy time is spent working on items, idle time 
+ * is spent waiting for an item from the previous stage or for space in the 
+ * queue to the next stage. The stage with the highest utilisation is the 
+ * bottleneck of the pipeline.
+ *
+ * Where the JVM supports it, the memory allocated by the stage while busy is 
+ * also recorded, to keep an eye on the garbage produced for each item.
+ */
+package phillockett65.PDFBookGen;
+
+import java.lang.management.ManagementFactory;
+
+public class StageMetrics {
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+
+    private final String name;
+    private long busy = 0;
+    private long idle = 0;
+    private int items = 0;
+    private long mark = System.nanoTime();
+    private long allocated = 0;
+    private long allocationMark = 0;
+
+    /**
+     * Construct StageMetrics for a pipeline stage.
+     * @param name of the stage.
+     */
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+                return threads;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, 0 if unknown.
+     */
+    private static long allocatedBytes() {
+        if (THREADS == null)
+            return 0;
+
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Note that the stage has finished waiting and has started working.
+     */
+    public void startWork() {
+        final long now = System.nanoTime();
+        idle += now - mark;
+        mark = now;
+        allocationMark = allocatedBytes();
+    }
+
+    /**
+     * Note that the stage has finished working and has started waiting.
+     * @param count of items completed by the work.
+     */
+    public void startWait(int count) {
+        final long now = System.nanoTime();
+        busy += now - mark;
+        mark = now;
+        items += count;
+        allocated += allocatedBytes() - allocationMark;
+    }
+
+    /**
+     * @return the name of the stage.
+     */
+    public String getName() { return name; }
+
+    /**
+     * @return the number of items the stage has completed.
+     */
+    public int getItems() { return items; }
+
+    /**
+     * @return the time the stage spent working in milliseconds.
+     */
+    public long getBusyMillis() { return busy / 1_000_000L; }
+
+    /**
+     * @return the time the stage spent waiting in milliseconds.
+     */
+    public long getIdleMillis() { return idle / 1_000_000L; }
+
+    /**
+     * @return the bytes allocated by the stage while working, 0 if the JVM 
+     * does not support measuring it.
+     */
+    public long getAllocatedBytes() { return allocated; }
+
+    /**
+     * @return the fraction of its time the stage spent working (0.0 to 1.0).
+     */
+    public double getUtilisation() {
+        final long total = busy + idle;
+        if (total == 0)
+            return 0.0;
+
+        return (double)busy / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-8s %6d items, busy %6d ms, idle %6d ms, %3.0f%% utilised, %6d KB/item",
+            name, items, getBusyMillis(), getIdleMillis(), 100 * getUtilisation(), 
+            (items == 0) ? 0 : allocated / items / 1024);
+    }
+
+}
@@ -0,0 +1,223 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * StreamCompressor is a class that Flate compresses the uncompressed streams 
+ * of a document on a pool of threads before the document is saved.
+ *
+ * PDFBox writes streams as they are, so the sheet content streams, and any 
+ * other streams created without a filter, end up uncompressed in the file. 
+ * Compressing them while the document is being written would be done one 
+ * stream at a time on the saving thread, so instead all the streams that 
+ * need it are found first and compressed in parallel. The document is then 
+ * saved as usual, so the output is written in the same order every time and 
+ * is the same for the same compression level.
+ *
+ * A compressed stream is only kept if it is smaller than the original. XMP 
+ * metadata is left uncompressed so that it remains readable.
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+public class StreamCompressor {
+
+    // Streams shorter than this are not worth compressing.
+    private static final int MIN_LENGTH = 64;
+
+    private final int level;
+    private final ExecutorService pool;
+
+    private final AtomicInteger found = new AtomicInteger();
+    private final AtomicInteger compressed = new AtomicInteger();
+    private final AtomicLong before = new AtomicLong();
+    private final AtomicLong after = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+
+    /**
+     * Constructor.
+     *
+     * @param level Flate compression level, 1 (fastest) to 9 (smallest).
+     * @param threads number of threads used to compress the streams.
+     */
+    public StreamCompressor(int level, int threads) {
+        this.level = Math.max(Deflater.BEST_SPEED, Math.min(level, Deflater.BEST_COMPRESSION));
+        pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "StreamCompressor");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Compress all the uncompressed streams of a document, waiting until 
+     * they are done. Several documents can be compressed at the same time, 
+     * sharing the pool.
+     *
+     * @param doc the document about to be saved.
+     */
+    public void compress(PDDocument doc) throws IOException {
+        final long start = System.nanoTime();
+
+        List<Future<?>> tasks = new ArrayList<>();
+        for (COSStream stream : findStreams(doc)) {
+            found.incrementAndGet();
+            tasks.add(pool.submit(() -> deflate(stream)));
+        }
+
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Job interrupted");
+        } finally {
+            nanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stop compressing streams, any outstanding work is abandoned.
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("streams  %6d found, %6d compressed, %d KB to %d KB in %d ms", 
+                found.get(), compressed.get(), before.get() / 1024, after.get() / 1024, 
+                nanos.get() / 1_000_000L);
+    }
+
+
+
+    /************************************************************************
+     * Support code for finding and compressing the streams.
+     */
+
+    /**
+     * Find the streams reachable from the trailer that have no filter.
+     */
+    private static List<COSStream> findStreams(PDDocument doc) {
+        List<COSStream> streams = new ArrayList<>();
+        Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<COSBase> todo = new ArrayDeque<>();
+        todo.push(doc.getDocument().getTrailer());
+
+        while (!todo.isEmpty()) {
+            COSBase value = todo.pop();
+            if (value instanceof COSObject)
+                value = ((COSObject)value).getObject();
+            if (value == null || !seen.add(value))
+                continue;
+
+            if (value instanceof COSDictionary) {
+                final COSDictionary dict = (COSDictionary)value;
+                for (COSBase item : dict.getValues()) {
+                    todo.push(item);
+                }
+                if (value instanceof COSStream && isCandidate((COSStream)value))
+                    streams.add((COSStream)value);
+            }
+            else if (value instanceof COSArray) {
+                for (COSBase item : (COSArray)value) {
+                    todo.push(item);
+                }
+            }
+        }
+
+        return streams;
+    }
+
+    private static boolean isCandidate(COSStream stream) {
+        return stream.getItem(COSName.FILTER) == null 
+            && !COSName.METADATA.equals(stream.getCOSName(COSName.TYPE)) 
+            && stream.getLength() >= MIN_LENGTH;
+    }
+
+    /**
+     * Flate compress a stream in place, if that makes it smaller.
+     */
+    private Void deflate(COSStream stream) throws IOException {
+        final long length = stream.getLength();
+
+        // Compress into a buffer first, so the original is untouched if 
+        // compression does not help.
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int)(length / 4));
+        Deflater deflater = new Deflater(level);
+        try {
+            try (InputStream in = stream.createRawInputStream();
+                OutputStream out = new DeflaterOutputStream(buffer, deflater)) {
+                in.transferTo(out);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        before.addAndGet(length);
+        if (buffer.size() >= length) {
+            after.addAndGet(length);
+
+            return null;
+        }
+
+        try (OutputStream out = stream.createRawOutputStream()) {
+            buffer.writeTo(out);
+        }
+        stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+        compressed.incrementAndGet();
+        after.addAndGet(buffer.size());
+
+        return null;
+    }
+
+}
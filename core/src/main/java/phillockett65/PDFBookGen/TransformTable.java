@@ -0,0 +1,147 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * TransformTable is a per job cache of the slot matrices supplied by a 
+ * Layout. The matrices are calculated the first time a source page geometry 
+ * is seen, after which placing a page on a sheet is a simple lookup.
+ *
+ * A job only sees a handful of page geometries, so the tables are held in 
+ * arrays that are replaced, rather than updated, when a geometry is added. 
+ * Lookups can then be made from any pipeline stage without locking and 
+ * without allocating.
+ */
+package phillockett65.PDFBookGen;
+
+import java.util.Arrays;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.util.Matrix;
+
+public class TransformTable {
+    private final Layout layout;
+    private final PDRectangle sheet;
+    private final boolean rotate;
+
+    private volatile long[] keys = new long[0];
+    private volatile Matrix[][][] tables = new Matrix[0][][];
+
+    /**
+     * Construct an empty TransformTable for a job.
+     * @param layout that supplies the matrices.
+     * @param sheet size of the output sheet of paper.
+     * @param rotate true if the reverse side is rotated 180 degrees.
+     */
+    public TransformTable(Layout layout, PDRectangle sheet, boolean rotate) {
+        this.layout = layout;
+        this.sheet = sheet;
+        this.rotate = rotate;
+    }
+
+    private static long key(float width, float height) {
+        final long w = Float.floatToIntBits(width);
+        final long h = Float.floatToIntBits(height);
+
+        return (w << 32) | (h & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the matrix that places a source page into a slot.
+     * @param source size of the source page.
+     * @param side of the sheet, 0 for the front and 1 for the reverse.
+     * @param slot on the side of the sheet.
+     * @return the matrix for the slot.
+     */
+    public Matrix get(PDRectangle source, int side, int slot) {
+        return get(source.getWidth(), source.getHeight(), side, slot);
+    }
+
+    /**
+     * Get the matrix that places an imported page into a slot, reading the 
+     * size straight from the bounding box of the form.
+     * @param form the imported source page.
+     * @param side of the sheet, 0 for the front and 1 for the reverse.
+     * @param slot on the side of the sheet.
+     * @return the matrix for the slot.
+     */
+    public Matrix get(PDFormXObject form, int side, int slot) {
+        final COSArray box = form.getCOSObject().getCOSArray(COSName.BBOX);
+        if (box == null || box.size() < 4)
+            return get(form.getBBox(), side, slot);
+
+        final float width = Math.abs(value(box, 2) - value(box, 0));
+        final float height = Math.abs(value(box, 3) - value(box, 1));
+
+        return get(width, height, side, slot);
+    }
+
+    private static float value(COSArray box, int index) {
+        final COSBase value = box.getObject(index);
+
+        return (value instanceof COSNumber) ? ((COSNumber)value).floatValue() : 0F;
+    }
+
+    private Matrix get(float width, float height, int side, int slot) {
+        final long key = key(width, height);
+        final long[] known = keys;
+        for (int i = 0; i < known.length; ++i) {
+            if (known[i] == key)
+                return tables[i][side][slot];
+        }
+
+        return add(key, width, height)[side][slot];
+    }
+
+    /**
+     * Calculate the matrices for a new page geometry and publish them.
+     */
+    private synchronized Matrix[][] add(long key, float width, float height) {
+        final int count = keys.length;
+        for (int i = 0; i < count; ++i) {
+            if (keys[i] == key)
+                return tables[i];
+        }
+
+        final Matrix[][] table = layout.getTransforms(sheet, 
+                new PDRectangle(width, height), rotate);
+
+        Matrix[][][] newTables = Arrays.copyOf(tables, count + 1);
+        newTables[count] = table;
+        long[] newKeys = Arrays.copyOf(keys, count + 1);
+        newKeys[count] = key;
+
+        // Publish the tables before the keys that refer to them.
+        tables = newTables;
+        keys = newKeys;
+
+        return table;
+    }
+
+    /**
+     * @return the number of distinct source page geometries seen so far.
+     */
+    public int size() { return keys.length; }
+
+}
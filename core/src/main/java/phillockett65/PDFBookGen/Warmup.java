@@ -0,0 +1,182 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Warmup is a class that performs the slow one-time initialisation of PDFBox 
+ * on a background thread, so that the first booklet generated after the 
+ * application starts runs as fast as the ones that follow it.
+ *
+ * The first time a font that is not embedded is needed, PDFBox scans the 
+ * fonts installed on the system, which can take several seconds on a server 
+ * with many fonts. The result is saved in .pdfbox.cache in the user's home 
+ * directory, or in the directory given by setFontCache(), so later starts 
+ * only check that the fonts have not changed. The standard 14 fonts and the 
+ * image codecs are also loaded, and a one page document is imposed and saved 
+ * in memory to load the classes used by the generation pipeline.
+ *
+ * Anything the warm-up has not finished when a job starts is simply waited 
+ * for, as PDFBox guards its one-time initialisation itself.
+ */
+package phillockett65.PDFBookGen;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.pdfbox.multipdf.LayerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.FontMappers;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.util.Matrix;
+
+public class Warmup {
+
+    private final static String FONTCACHE = "pdfbox.fontcache";
+
+    private static Thread thread;
+    private static volatile long elapsed = -1;
+
+
+    /**
+     * Set the directory PDFBox saves its font cache in, so that it can be 
+     * kept with the application instead of in the user's home directory. 
+     * Must be called before the warm-up or the first job is started.
+     *
+     * @param directory to hold the font cache.
+     */
+    public static void setFontCache(String directory) {
+        System.setProperty(FONTCACHE, directory);
+    }
+
+    /**
+     * Start the warm-up on a background thread, if it has not already been 
+     * started.
+     */
+    public static synchronized void start() {
+        if (thread != null)
+            return;
+
+        thread = new Thread(Warmup::run, "Warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Wait for the warm-up to complete, starting it if necessary.
+     */
+    public static void await() throws InterruptedException {
+        start();
+        thread.join();
+    }
+
+    /**
+     * @return true if the warm-up has completed.
+     */
+    public static boolean isDone() { return elapsed >= 0; }
+
+    /**
+     * @return the time the warm-up took in milliseconds, -1 if it has not 
+     * completed.
+     */
+    public static long getElapsedMillis() { return elapsed; }
+
+
+
+    /************************************************************************
+     * Support code for the warm-up steps.
+     */
+
+    private static void run() {
+        final long start = System.nanoTime();
+        try {
+            loadFonts();
+            loadPipeline();
+            loadApplication();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Warm-up failed: " + e.getMessage());
+        }
+        elapsed = (System.nanoTime() - start) / 1_000_000L;
+    }
+
+    /**
+     * Build or check the system font cache and load the standard 14 fonts.
+     */
+    private static void loadFonts() {
+        FontMappers.instance().getFontBoxFont("Helvetica", null);
+        PDType1Font.HELVETICA.getName();
+    }
+
+    /**
+     * Impose a one page document containing text and an image onto a sheet 
+     * and save it in memory, as a job would.
+     */
+    private static void loadPipeline() throws IOException {
+        try (PDDocument source = ResourceMonitor.newDocument(); 
+                PDDocument output = ResourceMonitor.newDocument()) {
+            PDPage page = new PDPage(PDRectangle.A5);
+            source.addPage(page);
+            PDImageXObject image = JPEGFactory.createFromImage(source, 
+                    new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB));
+            try (PDPageContentStream stream = new PDPageContentStream(source, page)) {
+                stream.beginText();
+                stream.setFont(PDType1Font.HELVETICA, 12);
+                stream.newLineAtOffset(72, 72);
+                stream.showText("PDFBookGen");
+                stream.endText();
+                stream.drawImage(image, 72, 144, 72, 72);
+            }
+
+            PDPage sheet = new PDPage(new PDRectangle(PDRectangle.A4.getHeight(), 
+                    PDRectangle.A4.getWidth()));
+            output.addPage(sheet);
+            PDFormXObject form = new LayerUtility(output).importPageAsForm(source, page);
+            try (PDPageContentStream stream = new PDPageContentStream(output, sheet)) {
+                stream.saveGraphicsState();
+                stream.transform(Matrix.getScaleInstance(0.5F, 0.5F));
+                stream.drawForm(form);
+                stream.restoreGraphicsState();
+            }
+
+            output.save(new ByteArrayOutputStream());
+        }
+    }
+
+    /**
+     * Read the application's caches and register the events and metrics.
+     */
+    private static void loadApplication() {
+        SourceCache.getCache().preload();
+        JobHistory.getHistory().get(JobHistory.getKind("2-up", false, 0));
+
+        new GenerationEvents.JobEvent().isEnabled();
+        new GenerationEvents.SignatureEvent().isEnabled();
+        new GenerationEvents.SheetEvent().isEnabled();
+        new GenerationEvents.SaveEvent().isEnabled();
+        new StageMetrics("Warmup").startWork();
+    }
+
+}
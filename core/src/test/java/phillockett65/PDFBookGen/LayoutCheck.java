@@ -0,0 +1,173 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LayoutCheck is a stand-alone program that checks that every piece of a 
+ * printed sheet is backed by the right page, for each layout, with and 
+ * without the reverse side rotated.
+ *
+ * The reverse side is turned over the way the printer turns the sheet: 
+ * along the fold of the spreads when the reverse is not rotated, across it 
+ * when it is. The centre of each page on the reverse must then lie behind 
+ * the centre of a page on the front that is on the same leaf, and the two 
+ * pages must read the same way up once the leaf is turned. It is not run 
+ * as part of the build, run it with:
+ *
+ *  java -cp core/target/classes:core/target/test-classes:<PDFBox jars> phillockett65.PDFBookGen.LayoutCheck
+ */
+package phillockett65.PDFBookGen;
+
+import java.awt.geom.Point2D;
+
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.util.Matrix;
+
+public class LayoutCheck {
+
+    private final static PDRectangle SHEET = PDRectangle.A4;
+    private final static int SHEETS = 3;
+    private final static float CLOSE = 0.5F;
+
+    private static int failures = 0;
+
+
+    public static void main(String[] args) {
+        for (Layout layout : new Layout[] { new GridLayout("2-up", 1, 1), 
+                new GridLayout("4-up", 1, 2), new GridLayout("8-up", 2, 2) }) {
+            for (boolean rotate : new boolean[] { false, true }) {
+                for (int sheets = 1; sheets <= SHEETS; ++sheets) {
+                    check(layout, PDRectangle.A5, sheets, rotate);
+                    check(layout, landscape(PDRectangle.A5), sheets, rotate);
+                }
+            }
+        }
+
+        if (failures == 0) {
+            System.out.println("All layouts backed correctly");
+        } else {
+            System.out.println(failures + " pages backed incorrectly");
+            System.exit(1);
+        }
+    }
+
+
+
+    /************************************************************************
+     * Support code for the check.
+     */
+
+    /**
+     * Check that each page on the reverse of each sheet lies behind the other 
+     * side of its leaf, the same way up.
+     */
+    private static void check(Layout layout, PDRectangle source, int sheets, 
+            boolean rotate) {
+        final String name = String.format("%s %s %d sheet(s)%s", 
+                layout.getName(), (source.getWidth() < source.getHeight()) ? 
+                "portrait" : "landscape", sheets, rotate ? " rotated" : "");
+        final Matrix[][] transforms = layout.getTransforms(SHEET, source, rotate);
+        final int[][] imposition = layout.getImposition(sheets);
+        final int slots = layout.getSlotCount();
+
+        // The fold runs along the up direction of the pages on the front.
+        final Point2D.Float up = up(transforms[0][0], source);
+        final boolean vertical = Math.abs(up.x) < Math.abs(up.y);
+        final boolean mirrorX = vertical != rotate;
+
+        for (int sheet = 0; sheet < sheets; ++sheet) {
+            final int[] front = imposition[2 * sheet];
+            final int[] reverse = imposition[2 * sheet + 1];
+
+            for (int slot = 0; slot < slots; ++slot) {
+                // Where the page ends up once the sheet is turned over.
+                Point2D.Float back = centre(transforms[1][slot], source);
+                back = mirrorX ? 
+                    new Point2D.Float(SHEET.getWidth() - back.x, back.y) : 
+                    new Point2D.Float(back.x, SHEET.getHeight() - back.y);
+
+                final int match = find(transforms[0], source, back);
+                if (match < 0) {
+                    fail(name, "page " + (reverse[slot] + 1) + " is not behind a page");
+                    continue;
+                }
+                if ((front[match] ^ 1) != reverse[slot]) {
+                    fail(name, "page " + (reverse[slot] + 1) + " is behind page " + 
+                            (front[match] + 1));
+                    continue;
+                }
+
+                // Turning the leaf over the fold must leave the page upright.
+                Point2D.Float turned = up(transforms[1][slot], source);
+                if (mirrorX != vertical) {
+                    turned = new Point2D.Float(-turned.x, -turned.y);
+                }
+                final Point2D.Float upright = up(transforms[0][match], source);
+                if (Math.abs(turned.x - upright.x) > CLOSE || 
+                        Math.abs(turned.y - upright.y) > CLOSE) {
+                    fail(name, "page " + (reverse[slot] + 1) + " is upside down");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the index of the slot whose centre is at point, or -1.
+     */
+    private static int find(Matrix[] transforms, PDRectangle source, 
+            Point2D.Float point) {
+        for (int slot = 0; slot < transforms.length; ++slot) {
+            if (centre(transforms[slot], source).distance(point) < CLOSE) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the centre of the source page on the sheet.
+     */
+    private static Point2D.Float centre(Matrix matrix, PDRectangle source) {
+        return matrix.transformPoint(source.getWidth() / 2, source.getHeight() / 2);
+    }
+
+    /**
+     * @return the unit vector pointing to the top of the page on the sheet.
+     */
+    private static Point2D.Float up(Matrix matrix, PDRectangle source) {
+        final Point2D.Float bottom = matrix.transformPoint(0, 0);
+        final Point2D.Float top = matrix.transformPoint(0, source.getHeight());
+        final float dx = top.x - bottom.x;
+        final float dy = top.y - bottom.y;
+        final float length = (float)Math.hypot(dx, dy);
+
+        return new Point2D.Float(dx / length, dy / length);
+    }
+
+    private static PDRectangle landscape(PDRectangle size) {
+        return new PDRectangle(size.getHeight(), size.getWidth());
+    }
+
+    private static void fail(String name, String message) {
+        System.out.println(name + ": " + message);
+        ++failures;
+    }
+
+}
@@ -0,0 +1,177 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SheetComposerBenchmark is a stand-alone program that measures the memory 
+ * allocated and the time taken to compose one side of a sheet, building the 
+ * page with a PDPageContentStream as the compose stage used to, and with a 
+ * SheetComposer as it does now.
+ *
+ * Pages are imported as forms and placed with the matrices of a 
+ * TransformTable, as in a job. The bytes allocated are read from the JVM's 
+ * per-thread allocation counter, so no profiler is needed. Each way is 
+ * warmed up first and then measured over the same number of sides. It is 
+ * not run as part of the build, run it with:
+ *
+ *  java -cp core/target/classes:core/target/test-classes:<PDFBox jars> phillockett65.PDFBookGen.SheetComposerBenchmark [sides]
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.apache.pdfbox.multipdf.LayerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+
+public class SheetComposerBenchmark {
+
+    private final static int SIDES = 20000;
+    private final static int WARMUP = 20000;
+    private final static PDRectangle SHEET = PDRectangle.A4;
+
+    private static final com.sun.management.ThreadMXBean THREADS = 
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    private interface Compose {
+        PDPage side(PDDocument doc, int side) throws IOException;
+    }
+
+    private static Layout layout;
+    private static TransformTable transforms;
+    private static int[][] imposition;
+    private static PDFormXObject[] forms;
+
+
+    public static void main(String[] args) throws IOException {
+        final int sides = (args.length > 0) ? Integer.parseInt(args[0]) : SIDES;
+
+        System.out.println(String.format("%-22s %8s %12s %12s", 
+                "layout / composer", "sides", "bytes/side", "ns/side"));
+        for (Layout each : new Layout[] { 
+                new GridLayout("2-up", 1, 1), new GridLayout("8-up", 2, 2) }) {
+            try (PDDocument source = createSource(each.getPagesPerSheet()); 
+                    PDDocument target = new PDDocument()) {
+                layout = each;
+                transforms = new TransformTable(layout, SHEET, true);
+                imposition = layout.getImposition(1);
+                forms = new PDFormXObject[layout.getPagesPerSheet()];
+                LayerUtility layer = new LayerUtility(target);
+                for (int i = 0; i < forms.length; ++i) {
+                    forms[i] = layer.importPageAsForm(source, i);
+                }
+
+                measure("content stream", sides, target, 
+                        SheetComposerBenchmark::contentStream);
+                SheetComposer composer = new SheetComposer(SHEET);
+                measure("sheet composer", sides, target, 
+                        (doc, side) -> sheetComposer(composer, doc, side));
+            }
+        }
+    }
+
+
+
+    /************************************************************************
+     * Support code for the benchmark.
+     */
+
+    /**
+     * Compose a side the way the compose stage did before SheetComposer.
+     */
+    private static PDPage contentStream(PDDocument doc, int side) throws IOException {
+        final int[] slots = imposition[side % imposition.length];
+        PDPage page = new PDPage(SHEET);
+        try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+            for (int slot = 0; slot < slots.length; ++slot) {
+                final PDFormXObject form = forms[slots[slot]];
+                stream.saveGraphicsState();
+                stream.transform(transforms.get(form, side % 2, slot));
+                stream.drawForm(form);
+                stream.restoreGraphicsState();
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * Compose a side the way the compose stage does now.
+     */
+    private static PDPage sheetComposer(SheetComposer composer, PDDocument doc, 
+            int side) throws IOException {
+        final int[] slots = imposition[side % imposition.length];
+        composer.start();
+        for (int slot = 0; slot < slots.length; ++slot) {
+            final PDFormXObject form = forms[slots[slot]];
+            composer.draw(form, transforms.get(form, side % 2, slot));
+        }
+
+        return composer.finish(doc);
+    }
+
+    /**
+     * Warm up a way of composing, then report the bytes allocated and the 
+     * time taken per side.
+     */
+    private static void measure(String name, int sides, PDDocument doc, 
+            Compose compose) throws IOException {
+        for (int side = 0; side < WARMUP; ++side) {
+            compose.side(doc, side);
+        }
+
+        final long thread = Thread.currentThread().getId();
+        final long bytes = THREADS.getThreadAllocatedBytes(thread);
+        final long start = System.nanoTime();
+        for (int side = 0; side < sides; ++side) {
+            compose.side(doc, side);
+        }
+        final long nanos = System.nanoTime() - start;
+        final long allocated = THREADS.getThreadAllocatedBytes(thread) - bytes;
+
+        System.out.println(String.format("%-22s %8d %12d %12d", 
+                layout.getName() + " / " + name, sides, allocated / sides, nanos / sides));
+    }
+
+    /**
+     * Create a source PDF with a line of text on each page.
+     */
+    private static PDDocument createSource(int pages) throws IOException {
+        PDDocument doc = new PDDocument();
+        for (int i = 0; i < pages; ++i) {
+            PDPage page = new PDPage(PDRectangle.A5);
+            doc.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                content.beginText();
+                content.setFont(PDType1Font.HELVETICA, 12);
+                content.newLineAtOffset(72, 500);
+                content.showText("Page " + (i + 1));
+                content.endText();
+            }
+        }
+
+        return doc;
+    }
+
+}
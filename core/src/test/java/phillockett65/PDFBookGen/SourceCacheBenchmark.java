@@ -0,0 +1,146 @@
+/*  PDFBookGen - a simple application to generate a booklet from of a PDF.
+ *
+ *  Copyright 2024 Philip Lockett.
+ *
+ *  This file is part of PDFBookGen.
+ *
+ *  PDFBookGen is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PDFBookGen is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PDFBookGen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SourceCacheBenchmark is a stand-alone program that shows the cost of a 
+ * SourceCache miss for a small range of pages does not grow with the size 
+ * of the document.
+ *
+ * It writes source PDFs of increasing page counts to a temporary directory, 
+ * then for each one times, with a new and empty cache every time, finding 
+ * the page count and collecting the details of ten pages from the middle of 
+ * the document. Loading the whole document is timed as well for comparison. 
+ * The median of several runs is reported. It is not run as part of the 
+ * build, run it with:
+ *
+ *  java -cp core/target/classes:core/target/test-classes:<PDFBox jars> phillockett65.PDFBookGen.SourceCacheBenchmark [pages ...]
+ */
+package phillockett65.PDFBookGen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+public class SourceCacheBenchmark {
+
+    private final static int[] SIZES = { 100, 1000, 10000, 40000 };
+    private final static int RANGE = 10;
+    private final static int RUNS = 5;
+
+    private interface Step {
+        void run() throws IOException;
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = SIZES;
+        if (args.length > 0)
+            sizes = Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        final Path dir = Files.createTempDirectory("SourceCacheBenchmark");
+        try {
+            System.out.println(String.format("%8s %10s %10s %10s %10s", 
+                    "pages", "size KB", "count ms", "range ms", "full ms"));
+            for (int pages : sizes) {
+                final File source = dir.resolve("source-" + pages + ".pdf").toFile();
+                write(source, pages);
+
+                final int first = pages / 2;
+                final int last = Math.min(pages, first + RANGE);
+                final Path cacheFile = dir.resolve("PageCache.dat");
+
+                final double count = median(() -> {
+                    Files.deleteIfExists(cacheFile);
+                    new SourceCache(cacheFile.toString(), 1).get(source.getPath());
+                });
+                final double range = median(() -> {
+                    Files.deleteIfExists(cacheFile);
+                    new SourceCache(cacheFile.toString(), 1).get(source.getPath(), first, last);
+                });
+                final double full = median(() -> {
+                    try (PDDocument doc = ResourceMonitor.load(source)) {
+                        doc.getNumberOfPages();
+                    }
+                });
+
+                System.out.println(String.format("%8d %10d %10.1f %10.1f %10.1f", 
+                        pages, source.length() / 1024, count, range, full));
+                Files.deleteIfExists(cacheFile);
+                Files.delete(source.toPath());
+            }
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+
+
+    /************************************************************************
+     * Support code for the benchmark.
+     */
+
+    /**
+     * Write a source PDF with a line of text on each page.
+     */
+    private static void write(File file, int pages) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; ++i) {
+                PDPage page = new PDPage(PDRectangle.A5);
+                doc.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 500);
+                    content.showText("Page " + (i + 1));
+                    content.endText();
+                }
+            }
+            doc.save(file);
+        }
+    }
+
+    /**
+     * Run a step once to warm up, then time it several times.
+     *
+     * @return the median time taken in milliseconds.
+     */
+    private static double median(Step step) throws IOException {
+        step.run();
+
+        double[] times = new double[RUNS];
+        for (int i = 0; i < RUNS; ++i) {
+            final long start = System.nanoTime();
+            step.run();
+            times[i] = (System.nanoTime() - start) / 1_000_000.0;
+        }
+        Arrays.sort(times);
+
+        return times[RUNS / 2];
+    }
+
+}
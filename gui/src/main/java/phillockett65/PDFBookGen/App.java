@@ -65,6 +65,7 @@ public class App extends Application {
     }
 
     public static void main(String[] args) {
+        Warmup.start();
         launch();
     }
 
@@ -106,9 +106,8 @@ public class DataStore implements Serializable {
     public static boolean writeData(DataStore dataStore, String settingsFile) {
         boolean success = false;
 
-        ObjectOutputStream objectOutputStream;
-        try {
-            objectOutputStream = new ObjectOutputStream(new FileOutputStream(settingsFile));
+        try (ObjectOutputStream objectOutputStream = 
+                new ObjectOutputStream(new FileOutputStream(settingsFile))) {
 
             objectOutputStream.writeObject(dataStore);
             success = true;
@@ -130,9 +129,8 @@ public class DataStore implements Serializable {
     public static DataStore readData(String settingsFile) {
         DataStore dataStore = null;
 
-        ObjectInputStream objectInputStream;
-        try {
-            objectInputStream = new ObjectInputStream(new FileInputStream(settingsFile));
+        try (ObjectInputStream objectInputStream = 
+                new ObjectInputStream(new FileInputStream(settingsFile))) {
 
             dataStore = (DataStore)objectInputStream.readObject();
         } catch (IOException e) {
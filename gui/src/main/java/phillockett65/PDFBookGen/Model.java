@@ -26,10 +26,15 @@ package phillockett65.PDFBookGen;
 
 import java.io.File;
 
+import javafx.animation.PauseTransition;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.control.SpinnerValueFactory;
+import javafx.scene.control.SpinnerValueFactory.IntegerSpinnerValueFactory;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 public class Model {
 
@@ -79,6 +84,10 @@ public class Model {
 
         // Calculate the signature data AFTER reading previous settings.
         BuildSignature();
+
+        // From now on coalesce bursts of changes from the controls.
+        signatureDelay = new PauseTransition(SETTLE_TIME);
+        signatureDelay.setOnFinished(e -> BuildSignature());
     }
 
     /**
@@ -277,8 +286,8 @@ public class Model {
     private boolean rotateCheck;
     private int pageCount = 50;
 
-    private SpinnerValueFactory<Integer> firstPageSVF;
-    private SpinnerValueFactory<Integer> lastPageSVF;
+    private IntegerSpinnerValueFactory firstPageSVF;
+    private IntegerSpinnerValueFactory lastPageSVF;
 
 
     /**
@@ -313,9 +322,7 @@ public class Model {
     private int getPageCount() { return pageCount; }
     private void setPageCount(int value) {
         pageCount = value;
-        firstPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, value, 1);
-        lastPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, value, value);
-        BuildSignature();
+        setPageRanges(1, value);
     }
 
 
@@ -326,20 +333,6 @@ public class Model {
 
     private int getFirstPage() { return firstPageSVF.getValue(); }
 
-    /**
-     * Selected first page has changed, so synchronize values.
-     */
-    public void syncFirstPage() {
-        // Make sure Last Page spinner has a minimum of the new First Page value.
-        final int first = getFirstPage();
-        int current = getLastPage();
-        if (current < first)
-            current = first;
-        lastPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(first, getPageCount(), current);
-
-        BuildSignature();
-    }
-
     /**
      * @return the Value Factory for the last page spinner.
      */
@@ -347,20 +340,6 @@ public class Model {
 
     private int getLastPage() { return lastPageSVF.getValue(); }
 
-    /**
-     * Selected last page has changed, so synchronize values.
-     */
-    public void syncLastPage() {
-        // Make sure First Page spinner has a maximum of the new Last Page value.
-        final int last = getLastPage();
-        int current = getFirstPage();
-        if (current > last)
-            current = last;
-        firstPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, last, current);
-
-        BuildSignature();
-    }
-
 
     /**
      * Used on start up to ensure first and last are well behaved, particularly
@@ -377,8 +356,14 @@ public class Model {
         if (first > last)
             first = last;
 
-        firstPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, last, first);
-        lastPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(first, count, last);
+        // Open up the bounds first so neither value gets clamped on the way.
+        firstPageSVF.setMax(count);
+        lastPageSVF.setMin(1);
+        lastPageSVF.setMax(count);
+
+        // The value listeners re-establish the cross-bounds.
+        lastPageSVF.setValue(last);
+        firstPageSVF.setValue(first);
         BuildSignature();
     }
 
@@ -398,19 +383,31 @@ public class Model {
         booklet.setFirstPage(first-1);
         booklet.setLastPage(last);
 
-        booklet.genBooklet();
-
-        return true;
+        return booklet.genBooklet();
     }
 
 
     /**
-     * Initialize "Output Content" panel.
+     * Initialize "Output Content" panel. The Value Factories are created once 
+     * and only their bounds are adjusted afterwards, so the spinners never 
+     * need to be re-bound.
      */
     private void initializeOutputContentPanel() {
         paperSizeList.addAll("A0", "A1", "A2", "A3", "A4", "A5", "A6", "Letter", "Legal");
-        firstPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 100, 1);
-        lastPageSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 100, 1);
+        firstPageSVF = new IntegerSpinnerValueFactory(1, 100, 1);
+        lastPageSVF = new IntegerSpinnerValueFactory(1, 100, 100);
+
+        // Make sure Last Page spinner has a minimum of the First Page value.
+        firstPageSVF.valueProperty().addListener( (v, oldValue, newValue) -> {
+            lastPageSVF.setMin(newValue);
+            requestSignature();
+        });
+
+        // Make sure First Page spinner has a maximum of the Last Page value.
+        lastPageSVF.valueProperty().addListener( (v, oldValue, newValue) -> {
+            firstPageSVF.setMax(newValue);
+            requestSignature();
+        });
     }
 
 
@@ -419,8 +416,17 @@ public class Model {
      * Support code for "Signature State" panel.
      */
 
-    private SpinnerValueFactory<Integer> sigSizeSVF;
-    private Signature signature;
+    private final static Duration SETTLE_TIME = Duration.millis(100);
+
+    private IntegerSpinnerValueFactory sigSizeSVF;
+    private PauseTransition signatureDelay;
+
+    private ReadOnlyIntegerWrapper outputPageCount = new ReadOnlyIntegerWrapper();
+    private ReadOnlyIntegerWrapper sigPageCount = new ReadOnlyIntegerWrapper();
+    private ReadOnlyIntegerWrapper sigCount = new ReadOnlyIntegerWrapper();
+    private ReadOnlyIntegerWrapper lastSigFirstPage = new ReadOnlyIntegerWrapper();
+    private ReadOnlyIntegerWrapper lastSigPageCount = new ReadOnlyIntegerWrapper();
+    private ReadOnlyIntegerWrapper lastSigBlankCount = new ReadOnlyIntegerWrapper();
 
     /**
      * @return the Value Factory for the signature size spinner.
@@ -431,51 +437,104 @@ public class Model {
     private void setSigSize(int value) { sigSizeSVF.setValue(value); }
 
     /**
-     * Signature size has changed, so synchronize values.
+     * Ask for the signature data to be recalculated once the page and size 
+     * values have settled. Bursts of changes, such as holding down a spinner 
+     * arrow, restart the delay and so result in a single recalculation.
      */
-    public void syncSigSize() { BuildSignature(); }
+    private void requestSignature() {
+        if (signatureDelay == null) {
+            BuildSignature();
 
+            return;
+        }
+
+        signatureDelay.playFromStart();
+    }
 
     private void BuildSignature() {
-        signature = new Signature(getSigSize(), getFirstPage(), getLastPage());
+        if (signatureDelay != null)
+            signatureDelay.stop();
+
+        Signature signature = new Signature(getSigSize(), getFirstPage(), getLastPage());
+
+        outputPageCount.set(signature.getOutputPageCount());
+        sigPageCount.set(signature.getSigPageCount());
+        sigCount.set(signature.getSigCount());
+        lastSigFirstPage.set(signature.getLastSigFirstPage());
+        lastSigPageCount.set(signature.getLastSigPageCount());
+        lastSigBlankCount.set(signature.getLastSigBlankCount());
     }
 
     /**
      * @return the number of source pages in the generated document.
      */
-    public int getOutputPageCount() { return signature.getOutputPageCount(); }
+    public int getOutputPageCount() { return outputPageCount.get(); }
+
+    /**
+     * @return the property holding the output page count.
+     */
+    public ReadOnlyIntegerProperty outputPageCountProperty() { return outputPageCount.getReadOnlyProperty(); }
 
     /**
      * @return the number of source pages in a signature.
      */
-    public int getSigPageCount() { return signature.getSigPageCount(); }
+    public int getSigPageCount() { return sigPageCount.get(); }
+
+    /**
+     * @return the property holding the signature page count.
+     */
+    public ReadOnlyIntegerProperty sigPageCountProperty() { return sigPageCount.getReadOnlyProperty(); }
 
     /**
      * @return the number of signatures that will be generated.
      */
-    public int getSigCount() { return signature.getSigCount(); }
+    public int getSigCount() { return sigCount.get(); }
+
+    /**
+     * @return the property holding the signature count.
+     */
+    public ReadOnlyIntegerProperty sigCountProperty() { return sigCount.getReadOnlyProperty(); }
 
     /**
      * @return the source page number that the last signature starts with.
      */
-    public int getLastSigFirstPage() { return signature.getLastSigFirstPage(); }
+    public int getLastSigFirstPage() { return lastSigFirstPage.get(); }
+
+    /**
+     * @return the property holding the first page of the last signature.
+     */
+    public ReadOnlyIntegerProperty lastSigFirstPageProperty() { return lastSigFirstPage.getReadOnlyProperty(); }
 
     /**
      * @return the number of source pages in the last signature.
      */
-    public int getLastSigPageCount() { return signature.getLastSigPageCount(); }
+    public int getLastSigPageCount() { return lastSigPageCount.get(); }
+
+    /**
+     * @return the property holding the page count of the last signature.
+     */
+    public ReadOnlyIntegerProperty lastSigPageCountProperty() { return lastSigPageCount.getReadOnlyProperty(); }
 
     /**
      * @return the number of blank pages in the last signature.
      */
-    public int getLastSigBlankCount() { return signature.getLastSigBlankCount(); }
+    public int getLastSigBlankCount() { return lastSigBlankCount.get(); }
+
+    /**
+     * @return the property holding the blank page count of the last signature.
+     */
+    public ReadOnlyIntegerProperty lastSigBlankCountProperty() { return lastSigBlankCount.getReadOnlyProperty(); }
 
 
     /**
      * Initialize "Signature State" panel.
      */
     private void initializeSignatureStatePanel() {
-        sigSizeSVF = new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 12, 1);
+        sigSizeSVF = new IntegerSpinnerValueFactory(1, 12, 1);
+
+        sigSizeSVF.valueProperty().addListener( (v, oldValue, newValue) -> {
+            requestSignature();
+        });
     }
 
 
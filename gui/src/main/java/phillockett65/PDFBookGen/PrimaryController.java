@@ -113,16 +113,9 @@ public class PrimaryController {
         outputFileNameTextField.setText(model.getOutputFileName());
         outputDocumentTextField.setText(model.getOutputFilePath());
 
-        syncFirstPageSpinner();
-        syncLastPageSpinner();
-
         rotateCheckBox.setSelected(model.isRotateCheck());
 
         paperSizeChoiceBox.setValue(model.getPaperSize());
-        syncSigSizeSpinner();
-
-        setTotalPageCountMessage();
-        setSignatureStateMessages();
     }
 
 
@@ -344,16 +337,8 @@ public class PrimaryController {
     }
 
 
-    private void setTotalPageCountMessage() {
-        countLabel.setText(String.valueOf(model.getOutputPageCount()));
-    }
-
-    private void syncFirstPageSpinner() {
-        firstPageSpinner.setValueFactory(model.getFirstPageSVF());
-    }
-
-    private void syncLastPageSpinner() {
-        lastPageSpinner.setValueFactory(model.getLastPageSVF());
+    private void bindTotalPageCountMessage() {
+        countLabel.textProperty().bind(model.outputPageCountProperty().asString());
     }
 
     /**
@@ -367,25 +352,14 @@ public class PrimaryController {
         });
 
 
-        syncFirstPageSpinner();
+        // The model keeps the spinner bounds and page count up to date.
+        firstPageSpinner.setValueFactory(model.getFirstPageSVF());
         firstPageSpinner.getValueFactory().wrapAroundProperty().set(false);
-        
-        firstPageSpinner.valueProperty().addListener( (v, oldValue, newValue) -> {
-            // System.out.println("intSpinner.Listener(" + newValue + "))");
-            model.syncFirstPage();
-            syncLastPageSpinner();
-            syncUI();
-        });
 
-        syncLastPageSpinner();
+        lastPageSpinner.setValueFactory(model.getLastPageSVF());
         lastPageSpinner.getValueFactory().wrapAroundProperty().set(false);
-        
-        lastPageSpinner.valueProperty().addListener( (v, oldValue, newValue) -> {
-            // System.out.println("doubleSpinner.Listener(" + newValue + "))");
-            model.syncLastPage();
-            syncFirstPageSpinner();
-            syncUI();
-        });
+
+        bindTotalPageCountMessage();
         
         paperSizeChoiceBox.setTooltip(new Tooltip("Paper size of the generated PDF document"));
         rotateCheckBox.setTooltip(new Tooltip("Rotate reverse side of sheet 180 degrees"));
@@ -419,16 +393,12 @@ public class PrimaryController {
     @FXML
     private Label lastSigBlanksLabel;
 
-    private void setSignatureStateMessages() {
-        sigLabel.setText(String.valueOf(model.getSigPageCount()));
-        sigCountLabel.setText(String.valueOf(model.getSigCount()));
-        lastSigBeginLabel.setText(String.valueOf(model.getLastSigFirstPage()));
-        lastSigCountLabel.setText(String.valueOf(model.getLastSigPageCount()));
-        lastSigBlanksLabel.setText(String.valueOf(model.getLastSigBlankCount()));
-    }
-
-    private void syncSigSizeSpinner() {
-        sigSizeSpinner.setValueFactory(model.getSigSizeSVF());
+    private void bindSignatureStateMessages() {
+        sigLabel.textProperty().bind(model.sigPageCountProperty().asString());
+        sigCountLabel.textProperty().bind(model.sigCountProperty().asString());
+        lastSigBeginLabel.textProperty().bind(model.lastSigFirstPageProperty().asString());
+        lastSigCountLabel.textProperty().bind(model.lastSigPageCountProperty().asString());
+        lastSigBlanksLabel.textProperty().bind(model.lastSigBlankCountProperty().asString());
     }
 
 
@@ -443,14 +413,10 @@ public class PrimaryController {
         lastSigCountLabel.setTooltip(new Tooltip("Number of pages from the source document in the last signature"));
         lastSigBlanksLabel.setTooltip(new Tooltip("Number of blank pages in the last signature"));
 
-        syncSigSizeSpinner();
+        sigSizeSpinner.setValueFactory(model.getSigSizeSVF());
         sigSizeSpinner.getValueFactory().wrapAroundProperty().set(false);
-        
-        sigSizeSpinner.valueProperty().addListener( (v, oldValue, newValue) -> {
-            // System.out.println("sigSizeSpinner.Listener(" + newValue + "))");
-            model.syncSigSize();
-            syncUI();
-        });
+
+        bindSignatureStateMessages();
     }
 
 